@@ -5,6 +5,7 @@ import jakarta.security.enterprise.identitystore.DatabaseIdentityStoreDefinition
 import jakarta.security.enterprise.identitystore.Pbkdf2PasswordHash;
 import jakarta.annotation.security.DeclareRoles;
 import jakarta.annotation.sql.DataSourceDefinition;
+import jakarta.enterprise.concurrent.ManagedExecutorDefinition;
 import jakarta.faces.annotation.FacesConfig;
 import jakarta.security.enterprise.authentication.mechanism.http.BasicAuthenticationMechanismDefinition;
 import jakarta.security.enterprise.authentication.mechanism.http.CustomFormAuthenticationMechanismDefinition;
@@ -26,6 +27,16 @@ import java.sql.Connection;
     initialPoolSize = 2
 )
 
+// CAD imports (stepguru, amatix) run here instead of on HTTP threads
+@ManagedExecutorDefinition(
+    name = "java:app/concurrent/ImportExecutor",
+    maxAsync = ImportConfig.IMPORT_EXECUTOR_THREADS
+)
+// amatix runs; concurrency is capped by materiam.import.simulation.workers
+@ManagedExecutorDefinition(
+    name = "java:app/concurrent/SimulationExecutor"
+)
+
 @DatabaseIdentityStoreDefinition(
     dataSourceLookup = "java:app/jdbc/materiam",
     callerQuery = "#{'SELECT password FROM users WHERE email = ?'}",
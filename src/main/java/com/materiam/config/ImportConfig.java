@@ -0,0 +1,223 @@
+package com.materiam.config;
+
+/**
+ * Tuning knobs for the CAD import pipeline.
+ * Loads settings from application.properties in the classpath.
+ */
+public class ImportConfig {
+
+    /**
+     * Threads of java:app/concurrent/ImportExecutor, and so the most imports
+     * that can really run at the same time.
+     */
+    public static final int IMPORT_EXECUTOR_THREADS = 4;
+
+    private ImportConfig() {
+    }
+
+    /**
+     * Gets the number of imports that may run at the same time. Waiting
+     * imports are started by priority and shared fairly between
+     * organizations.
+     * @return materiam.import.workers, 2 if unset, at most
+     *         {@link #IMPORT_EXECUTOR_THREADS}
+     */
+    public static int getImportWorkers() {
+        int workers = getInt("materiam.import.workers", 2);
+        if (workers > IMPORT_EXECUTOR_THREADS) {
+            System.err.println("materiam.import.workers=" + workers + " is more than the "
+                    + IMPORT_EXECUTOR_THREADS + " threads of the import executor, using "
+                    + IMPORT_EXECUTOR_THREADS);
+            return IMPORT_EXECUTOR_THREADS;
+        }
+        return workers;
+    }
+
+    /**
+     * Gets the largest upload that is imported with interactive priority.
+     * @return materiam.import.priority.smallmb in bytes, 5 MB if unset
+     */
+    public static long getInteractiveImportMaxBytes() {
+        return getInt("materiam.import.priority.smallmb", 5) * 1024L * 1024L;
+    }
+
+    /**
+     * Gets the smallest upload that is imported with bulk priority.
+     * @return materiam.import.priority.largemb in bytes, 100 MB if unset
+     */
+    public static long getBulkImportMinBytes() {
+        return getInt("materiam.import.priority.largemb", 100) * 1024L * 1024L;
+    }
+
+    /**
+     * Gets the largest STEP pre-scan estimate, in definitions plus
+     * instances, that is imported with interactive priority.
+     * @return materiam.import.priority.smallrows, 50 if unset
+     */
+    public static int getInteractiveImportMaxRows() {
+        return getInt("materiam.import.priority.smallrows", 50);
+    }
+
+    /**
+     * Gets the smallest STEP pre-scan estimate that is imported with bulk
+     * priority.
+     * @return materiam.import.priority.largerows, 5000 if unset
+     */
+    public static int getBulkImportMinRows() {
+        return getInt("materiam.import.priority.largerows", 5000);
+    }
+
+    /**
+     * Gets the number of B-spline surfaces from which a STEP file is
+     * imported with bulk priority, however few parts it has.
+     * @return materiam.import.priority.largesurfaces, 20000 if unset
+     */
+    public static int getBulkImportMinSurfaces() {
+        return getInt("materiam.import.priority.largesurfaces", 20000);
+    }
+
+    /**
+     * Gets the STEP pre-scan estimate from which the user is warned that
+     * the import will take long.
+     * @return materiam.import.warn.rows, 20000 if unset
+     */
+    public static int getLargeImportWarnRows() {
+        return getInt("materiam.import.warn.rows", 20000);
+    }
+
+    /**
+     * Gets the number of amatix simulations that may run at the same time.
+     * @return materiam.import.simulation.workers, or the number of cores if unset
+     */
+    public static int getSimulationWorkers() {
+        return getInt("materiam.import.simulation.workers", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Gets the disk space the amatix result cache may use before the least
+     * recently used entries are evicted. Files the cache shares with
+     * projects do not count.
+     * @return materiam.simulation.cache.maxmb in bytes, 2 GB if unset
+     */
+    public static long getSimulationCacheMaxBytes() {
+        return getInt("materiam.simulation.cache.maxmb", 2048) * 1024L * 1024L;
+    }
+
+    /**
+     * Gets the largest CAD file accepted by the upload endpoints.
+     * @return materiam.upload.maxmb in bytes, 2 GB if unset
+     */
+    public static long getMaxUploadBytes() {
+        return getInt("materiam.upload.maxmb", 2048) * 1024L * 1024L;
+    }
+
+    /**
+     * Gets how many CAD files a single zip upload may contain.
+     * @return materiam.upload.zip.maxfiles, 100 if unset
+     */
+    public static int getMaxArchiveFiles() {
+        return getInt("materiam.upload.zip.maxfiles", 100);
+    }
+
+    /**
+     * Gets the chunk size of resumable uploads.
+     * @return materiam.upload.chunkmb in bytes, 8 MB if unset
+     */
+    public static int getUploadChunkBytes() {
+        return Math.min(getInt("materiam.upload.chunkmb", 8), 1024) * 1024 * 1024;
+    }
+
+    /**
+     * Gets how long stepguru may run before it is killed.
+     * @return materiam.stepguru.timeout.minutes in ms, 60 minutes if unset
+     */
+    public static long getStepguruTimeoutMillis() {
+        return getInt("materiam.stepguru.timeout.minutes", 60) * 60L * 1000L;
+    }
+
+    /**
+     * Gets how long a single amatix simulation may run before it is killed.
+     * @return materiam.amatix.timeout.minutes in ms, 15 minutes if unset
+     */
+    public static long getAmatixTimeoutMillis() {
+        return getInt("materiam.amatix.timeout.minutes", 15) * 60L * 1000L;
+    }
+
+    /**
+     * Gets the CPU time limit for stepguru and amatix.
+     * @return materiam.tools.cpu.seconds, 0 (no limit) if unset
+     */
+    public static int getToolCpuSeconds() {
+        return getInt("materiam.tools.cpu.seconds", 0);
+    }
+
+    /**
+     * Gets the memory limit for stepguru and amatix.
+     * @return materiam.tools.memory.mb, 0 (no limit) if unset
+     */
+    public static int getToolMemoryMb() {
+        return getInt("materiam.tools.memory.mb", 0);
+    }
+
+    /**
+     * Gets which implementation runs stepguru and amatix.
+     * @return materiam.tools.runner, "exec" or "fake"; "exec" if unset
+     */
+    public static String getToolRunner() {
+        return PathConfig.getProperty("materiam.tools.runner", "exec").trim();
+    }
+
+    /**
+     * Gets the number of part definitions the fake tools put in an assembly.
+     * @return materiam.tools.fake.parts, 200 if unset
+     */
+    public static int getFakePartCount() {
+        return getInt("materiam.tools.fake.parts", 200);
+    }
+
+    /**
+     * Gets how often every fake part is instanced.
+     * @return materiam.tools.fake.instances, 1 if unset
+     */
+    public static int getFakeInstancesPerPart() {
+        return getInt("materiam.tools.fake.instances", 1);
+    }
+
+    /**
+     * Gets the size of every GLB file written by the fake tools.
+     * @return materiam.tools.fake.modelkb, 64 if unset
+     */
+    public static int getFakeModelKb() {
+        return getInt("materiam.tools.fake.modelkb", 64);
+    }
+
+    /**
+     * Gets how long a fake conversion takes before it writes its output.
+     * @return materiam.tools.fake.convertms, 0 if unset
+     */
+    public static long getFakeConvertMillis() {
+        return getInt("materiam.tools.fake.convertms", 0);
+    }
+
+    /**
+     * Gets how long a fake bend simulation takes.
+     * @return materiam.tools.fake.simulatems, 0 if unset
+     */
+    public static long getFakeSimulateMillis() {
+        return getInt("materiam.tools.fake.simulatems", 0);
+    }
+
+    static int getInt(String key, int defaultValue) {
+        String value = PathConfig.getProperty(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+}
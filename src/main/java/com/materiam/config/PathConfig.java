@@ -2,6 +2,7 @@ package com.materiam.config;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.Properties;
 
 /**
@@ -33,6 +34,13 @@ public class PathConfig {
         }
     }
 
+    /**
+     * Gets a raw property value for the other configuration classes.
+     */
+    static String getProperty(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+
     /**
      * Gets the base path for project data files.
      * @return the projects path from configuration
@@ -41,4 +49,40 @@ public class PathConfig {
         return properties.getProperty("materiam.projects.path",
                 "/home/mufufu/Downloads/materiam/data/projects/");
     }
+
+    /**
+     * Gets the directory where amatix results are cached between imports.
+     * @return materiam.simulation.cache.path, or simulation-cache next to the projects path
+     */
+    public static String getSimulationCachePath() {
+        String path = properties.getProperty("materiam.simulation.cache.path");
+        if (path != null && !path.trim().isEmpty()) {
+            return path.trim();
+        }
+        return Paths.get(getProjectsPath()).resolveSibling("simulation-cache").toString();
+    }
+
+    /**
+     * Gets the content-addressed store of part files shared between projects.
+     * @return materiam.parts.store.path, or part-store next to the projects path
+     */
+    public static String getPartStorePath() {
+        String path = properties.getProperty("materiam.parts.store.path");
+        if (path != null && !path.trim().isEmpty()) {
+            return path.trim();
+        }
+        return Paths.get(getProjectsPath()).resolveSibling("part-store").toString();
+    }
+
+    /**
+     * Gets the directory where resumable uploads are assembled.
+     * @return materiam.uploads.path, or uploads next to the projects path
+     */
+    public static String getUploadsPath() {
+        String path = properties.getProperty("materiam.uploads.path");
+        if (path != null && !path.trim().isEmpty()) {
+            return path.trim();
+        }
+        return Paths.get(getProjectsPath()).resolveSibling("uploads").toString();
+    }
 }
@@ -0,0 +1,114 @@
+package com.materiam.controllers;
+
+import com.materiam.entities.Assembly;
+import com.materiam.entities.CADFile;
+import com.materiam.entities.Part;
+import jakarta.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The assemblies of a CADFile and the parts under each of them, loaded with
+ * a fixed number of queries instead of walking the lazy
+ * {@link Assembly#getAssemblies()} and {@link Assembly#getParts()}
+ * collections, which costs a round trip per assembly.
+ *
+ * Assemblies imported before {@link Assembly#getCadfileId()} existed are
+ * found level by level from the root, one query per level of the tree.
+ *
+ * @author mufufu
+ */
+class AssemblyHierarchy {
+
+    // Keeps IN lists of the level by level fallback within what databases accept
+    private static final int IN_LIMIT = 1000;
+
+    private static final Comparator<Assembly> BY_ID = Comparator.comparing(Assembly::getId);
+
+    private final Map<Long, List<Assembly>> children = new HashMap<>();
+    private final Map<Long, List<Part>> parts = new HashMap<>();
+    private int assemblyCount;
+
+    private AssemblyHierarchy() {
+    }
+
+    static AssemblyHierarchy load(EntityManager em, CADFile cf) {
+        AssemblyHierarchy hierarchy = new AssemblyHierarchy();
+        if (cf.getRoot() == null) {
+            return hierarchy;
+        }
+
+        // Parents get lower ids than their children, so in id order every
+        // parent is already in the persistence context when a child refers to it
+        List<Assembly> assemblies = em.createQuery(
+                "select a from Assembly a where a.cadfileId = :cadfileId order by a.id", Assembly.class)
+                .setParameter("cadfileId", cf.getId())
+                .getResultList();
+        if (assemblies.isEmpty()) {
+            assemblies = loadByLevel(em, cf.getRoot());
+        }
+        hierarchy.assemblyCount = assemblies.size();
+        for (Assembly assembly : assemblies) {
+            if (assembly.getParent() != null) {
+                hierarchy.children.computeIfAbsent(assembly.getParent().getId(), k -> new ArrayList<>()).add(assembly);
+            }
+        }
+        for (List<Assembly> list : hierarchy.children.values()) {
+            list.sort(BY_ID);
+        }
+
+        List<Object[]> links = em.createQuery(
+                "select a.id, p from Assembly a join a.parts p where p.cadfile.id = :cadfileId order by p.id",
+                Object[].class)
+                .setParameter("cadfileId", cf.getId())
+                .getResultList();
+        for (Object[] link : links) {
+            hierarchy.parts.computeIfAbsent((Long) link[0], k -> new ArrayList<>()).add((Part) link[1]);
+        }
+        return hierarchy;
+    }
+
+    private static List<Assembly> loadByLevel(EntityManager em, Assembly root) {
+        List<Assembly> all = new ArrayList<>();
+        all.add(root);
+        List<Long> level = Collections.singletonList(root.getId());
+        while (!level.isEmpty()) {
+            List<Long> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += IN_LIMIT) {
+                List<Assembly> found = em.createQuery(
+                        "select a from Assembly a where a.parent.id in :ids", Assembly.class)
+                        .setParameter("ids", level.subList(i, Math.min(level.size(), i + IN_LIMIT)))
+                        .getResultList();
+                for (Assembly assembly : found) {
+                    all.add(assembly);
+                    next.add(assembly.getId());
+                }
+            }
+            level = next;
+        }
+        return all;
+    }
+
+    /**
+     * @return the child assemblies of {@code assembly}, in the order they
+     *         were imported
+     */
+    List<Assembly> getChildren(Assembly assembly) {
+        return children.getOrDefault(assembly.getId(), Collections.emptyList());
+    }
+
+    /**
+     * @return the parts directly under {@code assembly}
+     */
+    List<Part> getParts(Assembly assembly) {
+        return parts.getOrDefault(assembly.getId(), Collections.emptyList());
+    }
+
+    int getAssemblyCount() {
+        return assemblyCount;
+    }
+}
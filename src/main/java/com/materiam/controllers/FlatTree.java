@@ -0,0 +1,175 @@
+package com.materiam.controllers;
+
+import com.materiam.controllers.ProjectController.FlatTreeNode;
+import com.materiam.controllers.ProjectController.TreeNodeData;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.primefaces.model.TreeNode;
+
+/**
+ * The assembly tree in depth-first order, as the custom HTML tree renders
+ * it. Structure is kept in arrays indexed by position: the parent, the
+ * depth and the end of the subtree of every node, so the descendants of
+ * node {@code i} are the range {@code i + 1 .. subtreeEnd[i] - 1}.
+ * Expansion and visibility are bit sets over the same positions.
+ *
+ * Visibility is worked out in one pass that jumps over collapsed subtrees,
+ * and a toggle only touches the range of the node toggled.
+ *
+ * @author mufufu
+ */
+class FlatTree {
+
+    private final TreeNode<TreeNodeData> source;
+    private final List<FlatTreeNode> nodes = new ArrayList<>();
+    private final int[] parent;
+    private final int[] depth;
+    private final int[] subtreeEnd;
+    private final BitSet expanded;
+    private final BitSet visible;
+
+    // Rows to render, rebuilt after a toggle
+    private List<FlatTreeNode> visibleNodes;
+
+    private FlatTree(TreeNode<TreeNodeData> source, int size) {
+        this.source = source;
+        parent = new int[size];
+        depth = new int[size];
+        subtreeEnd = new int[size];
+        expanded = new BitSet(size);
+        visible = new BitSet(size);
+    }
+
+    /**
+     * Flattens {@code root}, the virtual project node. Assemblies collapsed
+     * in {@code previous} stay collapsed, everything else starts expanded.
+     */
+    static FlatTree of(TreeNode<TreeNodeData> root, FlatTree previous) {
+        FlatTree tree = new FlatTree(root, count(root));
+        Set<Long> collapsed = previous != null ? previous.getCollapsedAssemblies() : Collections.emptySet();
+        for (TreeNode<TreeNodeData> child : root.getChildren()) {
+            tree.add(child, -1, 0, collapsed);
+        }
+        tree.updateVisibility(0, tree.nodes.size());
+        return tree;
+    }
+
+    private static int count(TreeNode<TreeNodeData> node) {
+        int n = 0;
+        for (TreeNode<TreeNodeData> child : node.getChildren()) {
+            n += 1 + count(child);
+        }
+        return n;
+    }
+
+    private void add(TreeNode<TreeNodeData> node, int parentIndex, int level, Set<Long> collapsed) {
+        int i = nodes.size();
+        TreeNodeData data = node.getData();
+        nodes.add(new FlatTreeNode(this, i, data));
+        parent[i] = parentIndex;
+        depth[i] = level;
+        for (TreeNode<TreeNodeData> child : node.getChildren()) {
+            add(child, i, level + 1, collapsed);
+        }
+        subtreeEnd[i] = nodes.size();
+        if (hasChildren(i) && !(data.getAssembly() != null && collapsed.contains(data.getAssembly().getId()))) {
+            expanded.set(i);
+        }
+    }
+
+    /**
+     * Marks visible the nodes of {@code from .. to - 1} whose ancestors in
+     * the range are all expanded. The caller makes sure the nodes at the
+     * top of the range have a visible, expanded parent.
+     */
+    private void updateVisibility(int from, int to) {
+        int i = from;
+        while (i < to) {
+            visible.set(i);
+            i = expanded.get(i) ? i + 1 : subtreeEnd[i];
+        }
+        visibleNodes = null;
+    }
+
+    /**
+     * Expands or collapses node {@code i}. Only its own subtree changes.
+     */
+    void toggle(int i) {
+        if (i < 0 || i >= nodes.size() || !hasChildren(i)) {
+            return;
+        }
+        expanded.flip(i);
+        if (!visible.get(i)) {
+            // Shown with the new state once an ancestor is expanded
+            return;
+        }
+        if (expanded.get(i)) {
+            updateVisibility(i + 1, subtreeEnd[i]);
+        } else {
+            visible.clear(i + 1, subtreeEnd[i]);
+            visibleNodes = null;
+        }
+    }
+
+    /**
+     * @return the nodes to render, in tree order
+     */
+    List<FlatTreeNode> getVisibleNodes() {
+        if (visibleNodes == null) {
+            List<FlatTreeNode> list = new ArrayList<>(visible.cardinality());
+            for (int i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i + 1)) {
+                list.add(nodes.get(i));
+            }
+            visibleNodes = list;
+        }
+        return visibleNodes;
+    }
+
+    private Set<Long> getCollapsedAssemblies() {
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (hasChildren(i) && !expanded.get(i)) {
+                TreeNodeData data = nodes.get(i).getData();
+                if (data.getAssembly() != null) {
+                    ids.add(data.getAssembly().getId());
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return true if this was flattened from {@code root}
+     */
+    boolean isOf(TreeNode<TreeNodeData> root) {
+        return source == root;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    int getParent(int i) {
+        return parent[i];
+    }
+
+    int getDepth(int i) {
+        return depth[i];
+    }
+
+    boolean hasChildren(int i) {
+        return subtreeEnd[i] > i + 1;
+    }
+
+    boolean isExpanded(int i) {
+        return expanded.get(i);
+    }
+
+    boolean isVisible(int i) {
+        return visible.get(i);
+    }
+}
@@ -4,11 +4,13 @@
  */
 package com.materiam.controllers;
 
+import com.materiam.config.ImportConfig;
 import com.materiam.config.PathConfig;
 import com.materiam.entities.Assembly;
 import com.materiam.entities.CADFile;
 import com.materiam.entities.Category;
 import com.materiam.entities.FabProcess;
+import com.materiam.entities.ImportTimeline;
 import com.materiam.entities.Instance;
 import com.materiam.entities.Material;
 import com.materiam.entities.Part;
@@ -16,37 +18,44 @@ import com.materiam.entities.Product;
 import com.materiam.entities.Project;
 import com.materiam.entities.Property;
 import com.materiam.entities.User;
+import com.materiam.imports.AssemblyIndex;
+import com.materiam.imports.ChunkedUploadService;
+import com.materiam.imports.ImportBatch;
+import com.materiam.imports.ImportJob;
+import com.materiam.imports.ImportService;
+import com.materiam.imports.ImportState;
+import com.materiam.imports.ImportTimelineService;
+import com.materiam.imports.StepScan;
+import com.materiam.imports.UploadArchive;
+import com.materiam.imports.UploadSession;
+import com.materiam.imports.UploadWriter;
+import com.materiam.shapes.ShapeCode;
 import jakarta.annotation.PostConstruct;
-import jakarta.ejb.Asynchronous;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.SessionScoped;
 import jakarta.faces.application.FacesMessage;
 import jakarta.faces.context.ExternalContext;
 import jakarta.faces.context.FacesContext;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
-import jakarta.json.Json;
-import jakarta.json.JsonArray;
-import jakarta.json.JsonNumber;
-import jakarta.json.JsonObject;
-import jakarta.json.JsonReader;
-import jakarta.json.JsonString;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.Query;
 import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpSession;
+import jakarta.transaction.HeuristicMixedException;
+import jakarta.transaction.HeuristicRollbackException;
+import jakarta.transaction.NotSupportedException;
+import jakarta.transaction.RollbackException;
+import jakarta.transaction.SystemException;
 import jakarta.transaction.Transactional;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileOutputStream;
+import jakarta.transaction.UserTransaction;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.Serializable;
-import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -54,6 +63,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -95,9 +106,24 @@ public class ProjectController implements Serializable {
     @Inject
     QuotingEngine quotingEngine;
 
+    @Inject
+    ImportService importService;
+
+    @Inject
+    ChunkedUploadService chunkedUploadService;
+
+    @Inject
+    ImportTimelineService importTimelineService;
+
+    @Inject
+    private RenderMemo renderMemo;
+
     @PersistenceContext(unitName = "materiam")
     private EntityManager em;
 
+    @Inject
+    private UserTransaction userTransaction;
+
     private Project activeProject;
 
     private Map<String, Object> definitionsEntityMap;
@@ -111,12 +137,24 @@ public class ProjectController implements Serializable {
     private boolean bomViewActive = false;
 
     // Last uploaded part info for auto-loading in viewer
-    private String lastUploadedCadfileUuid;
-    private String lastUploadedPartPersid;
+    private String lastImportJobId;
+
+    // The next upload is imported as a new revision of this CADFile
+    private CADFile revisionTarget;
+
+    // Import jobs started from this session that have not finished yet,
+    // with the tree version the cached tree was built from
+    private Map<String, Integer> pendingImports = new HashMap<>();
 
     // Flat tree for custom HTML rendering
-    private List<FlatTreeNode> flatTreeNodes;
-    private Set<String> expandedNodes = new HashSet<>();
+    private FlatTree flatTree;
+
+    // Large trees render only a window of rows around the scroll position
+    private static final int TREE_WINDOW_ROWS = 40;
+    // Height of every row of a windowed tree, also used by its style rule;
+    // fits the thumbnail and the details of a quoted part
+    private static final int TREE_ROW_PX = 176;
+    private int treeWindowOffset;
 
     private String destination = PathConfig.getProjectsPath();
         
@@ -241,6 +279,10 @@ public class ProjectController implements Serializable {
     }
     
     public List<QuotedPart> getQuotedParts(CADFile cadfile) {
+        return renderMemo.get("quotedParts:" + cadfile.getId(), () -> quoteParts(cadfile));
+    }
+
+    private List<QuotedPart> quoteParts(CADFile cadfile) {
         List<QuotedPart> qps = new ArrayList<>();
         List<Part> parts = em.createQuery("SELECT p FROM Part p, CADFile cf, Project pr  where pr=:project and cf.project=pr and p.cadfile=cf and cf=:cadfile")
                                                 .setParameter("project", activeProject)
@@ -255,7 +297,8 @@ public class ProjectController implements Serializable {
                 qps.add(qp);
                 continue;
             }
-            if (p.getShape().getKey().equals("SHEET_METAL_FLAT") || p.getShape().getKey().equals("SHEET_METAL_FOLDED")) {
+            ShapeCode shape = ShapeCode.of(p);
+            if (shape != null && shape.isSheetMetal()) {
                 BigDecimal price = BigDecimal.ZERO;
                 try {
                     if (p.getMaterial() == null) {
@@ -302,7 +345,7 @@ public class ProjectController implements Serializable {
                         BigDecimal ppb = (fppb.getPriceph()).divide(new BigDecimal(60),2, RoundingMode.HALF_UP);
                         ppb = ppb.divide(new BigDecimal(6), 2, RoundingMode.HALF_UP);
 
-                        if (p.getShape().getKey().equals("SHEET_METAL_FOLDED")) {
+                        if (shape == ShapeCode.SHEET_METAL_FOLDED) {
                             price = price.add(ppb.multiply(new BigDecimal(qp.getPart().getBends())));
                         }
                     }
@@ -312,7 +355,7 @@ public class ProjectController implements Serializable {
                 }
                 qp.setPrice(price);
 
-                } else if (p.getShape().getKey().equals("TUBE_RECTANGULAR") ) {
+                } else if (shape == ShapeCode.TUBE_RECTANGULAR) {
                     BigDecimal price = BigDecimal.ZERO;
                     try {
                         if (p.getMaterial() != null) {
@@ -342,10 +385,17 @@ public class ProjectController implements Serializable {
     }
     
     public BigDecimal getTotal() {
+        return renderMemo.get("total", this::computeTotal);
+    }
+
+    private BigDecimal computeTotal() {
         if (activeProject == null)
             return BigDecimal.ZERO;
         BigDecimal total = new BigDecimal(0);
         for (CADFile cf : activeProject.getCadfiles()) {
+            if (Boolean.TRUE.equals(cf.getSuperseded())) {
+                continue;
+            }
 
             for (QuotedPart q : getQuotedParts(cf)) {
 
@@ -372,27 +422,168 @@ public class ProjectController implements Serializable {
     */
     
     
-    @Asynchronous
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void uploadCadFile(FileUploadEvent event) {
         FacesContext facesContext = FacesContext.getCurrentInstance();
         ExternalContext externalContext = facesContext.getExternalContext();
         
-        userController.sendUpdate("Uploading CAD file...");
-        System.out.println("* - * - * * - * - * * - * - *  Uploading File * - * - *  * - * - * * - * - * ");
-        FacesMessage msg = new FacesMessage("Success! ", event.getFile().getFileName() + " is uploaded.");
-        FacesContext.getCurrentInstance().addMessage(null, msg);
-        
         UploadedFile file = event.getFile();
         
-        // Do what you want with the file
-        userController.sendUpdate("Importing file...");
         String fileName = sanitizeFilename(event.getFile().getFileName());
-        
-        HttpSession session = request.getSession();
+
+        try (InputStream in = file.getInputStream()) {
+            if (UploadArchive.isArchive(fileName)) {
+                ImportBatch batch = storeArchive(fileName, in);
+                if (batch.getSize() == 0) {
+                    FacesContext.getCurrentInstance().addMessage(null,
+                        new FacesMessage(FacesMessage.SEVERITY_WARN, "Nothing to import", fileName + " has no STEP files"));
+                    return;
+                }
+            } else {
+                inUploadTransaction(() -> storeUpload(fileName, Channels.newChannel(in)));
+            }
+        } catch (UploadWriter.TooLargeException e) {
+            System.out.println(e.getMessage());
+            FacesContext.getCurrentInstance().addMessage(null,
+                new FacesMessage(FacesMessage.SEVERITY_ERROR, "Error", fileName + " is too large"));
+            return;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            FacesContext.getCurrentInstance().addMessage(null,
+                new FacesMessage(FacesMessage.SEVERITY_ERROR, "Error", "Could not store " + fileName));
+            return;
+        }
+
+        FacesMessage msg = new FacesMessage("Success! ", fileName + " is uploaded.");
+        FacesContext.getCurrentInstance().addMessage(null, msg);
+
+        // TODO: Do not redirect if it is the same page!!!
+        try {
+            externalContext.redirect("project.xhtml");
+        } catch (IOException e) {
+            // Handle the IOException
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stores an uploaded CAD file as a new CADFile of the active project,
+     * creating the project first if there is none, and queues its import.
+     * Used by the PrimeFaces upload and by the streaming upload servlet.
+     *
+     * @param body the file contents, read until end of stream
+     * @throws UploadWriter.TooLargeException if the file is larger than
+     *         materiam.upload.maxmb
+     */
+    @Transactional(rollbackOn = IOException.class)
+    public ImportJob storeUpload(String fileName, ReadableByteChannel body) throws IOException {
+        userController.sendUpdate("Uploading CAD file...");
+        System.out.println("* - * - * * - * - * * - * - *  Uploading File * - * - *  * - * - * * - * - * ");
 
         fileName = sanitizeFilename(fileName);
+        CADFile f = newCadFile(fileName);
 
+        String filedest = destination.concat(getActiveProject().getUuid()+"/"+f.getUuid()+"/");
+        Path path = Paths.get(filedest);
+        long start = System.currentTimeMillis();
+        UploadWriter.Stored stored;
+        try {
+            Files.createDirectories(path);
+            System.out.println("Directory created successfully at: " + path.toAbsolutePath());
+            stored = UploadWriter.write(body, path.resolve(fileName), ImportConfig.getMaxUploadBytes());
+            f.setContentHash(stored.getContentHash());
+            System.out.println("New file uploaded: " + (filedest + fileName) + " (" + stored.getSize()
+                    + " bytes, sha256=" + stored.getContentHash() + ")");
+        } catch (IOException e) {
+            activeProject.getCadfiles().remove(f);
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        return queueImport(f, filedest, fileName, stored, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Stores every STEP file of a zip archive as a new CADFile of the active
+     * project and queues their imports, which then run in parallel. Each file
+     * is committed on its own, so its import starts while the rest of the
+     * archive is still arriving. Files over materiam.upload.maxmb are
+     * skipped.
+     *
+     * If the archive turns out to be damaged, or to have more than
+     * materiam.upload.zip.maxfiles STEP files, the file being stored is
+     * rolled back and the ones before it keep importing; the batch tells
+     * why it stopped.
+     *
+     * @param body the archive, read until end of stream
+     * @return the batch of imports, empty if the archive had no STEP files
+     * @throws IOException if not a single file could be stored
+     */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public ImportBatch storeArchive(String fileName, InputStream body) throws IOException {
+        userController.sendUpdate("Unpacking " + fileName + "...");
+        // An archive is never a revision of a single file
+        revisionTarget = null;
+        ImportBatch batch = new ImportBatch(fileName);
+        try {
+            UploadArchive.extract(body, ImportConfig.getMaxArchiveFiles(), (name, entry) -> {
+                try {
+                    batch.add(inUploadTransaction(() -> storeUpload(name, entry)));
+                } catch (UploadWriter.TooLargeException e) {
+                    System.out.println(name + " in " + fileName + ": " + e.getMessage());
+                    userController.sendUpdate("Skipped " + name + ", it is too large");
+                }
+            });
+        } catch (IOException e) {
+            if (batch.getSize() == 0) {
+                throw e;
+            }
+            System.out.println(fileName + " stopped after " + batch.getSize() + " files: " + e.getMessage());
+            batch.setError(e.getMessage());
+            userController.sendUpdate("Could not read all of " + fileName + ": " + e.getMessage());
+        }
+        System.out.println("Queued " + batch.getSize() + " imports from " + fileName + " as " + batch);
+        if (batch.getSize() > 0) {
+            userController.sendUpdate(batch.getSummary());
+        }
+        return batch;
+    }
+
+    /**
+     * Finishes a resumable upload: verifies the staged file, moves it into a
+     * new CADFile of the active project and queues its import.
+     *
+     * @throws IOException if chunks are missing or the hash does not match
+     */
+    @Transactional(rollbackOn = IOException.class)
+    public ImportJob completeUpload(UploadSession session) throws IOException {
+        String fileName = sanitizeFilename(session.getFileName());
+        userController.sendUpdate("Verifying " + fileName + "...");
+        CADFile f = newCadFile(fileName);
 
+        String filedest = destination.concat(getActiveProject().getUuid()+"/"+f.getUuid()+"/");
+        Path path = Paths.get(filedest);
+        UploadWriter.Stored stored;
+        try {
+            Files.createDirectories(path);
+            stored = chunkedUploadService.complete(session, path.resolve(fileName));
+            f.setContentHash(stored.getContentHash());
+            System.out.println("Chunked upload complete: " + (filedest + fileName) + " (" + session.getSize()
+                    + " bytes, sha256=" + f.getContentHash() + ")");
+        } catch (IOException e) {
+            activeProject.getCadfiles().remove(f);
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        return queueImport(f, filedest, fileName, stored, System.currentTimeMillis() - session.getCreated());
+    }
+
+    /**
+     * Creates the CADFile for an upload in the active project, creating and
+     * persisting the project first if needed.
+     */
+    private CADFile newCadFile(String fileName) {
         if (activeProject == null) {
             System.out.println("⚠️ ⚠️ ⚠️ ActiveProject is null when copying file... ⚠️ ⚠️ ⚠️");
             // Generate a new project
@@ -426,472 +617,200 @@ public class ProjectController implements Serializable {
         CADFile f = new CADFile();
         f.setName(fileName);
         f.setProject(getActiveProject());
+        if (revisionTarget != null) {
+            f.setPreviousRevisionId(revisionTarget.getId());
+            System.out.println(fileName + " is a new revision of " + revisionTarget.getName());
+            revisionTarget = null;
+        }
         UUID fuuid = UUID.randomUUID();
         f.setUuid(fuuid.toString());
         f.setParts(new HashSet<Part>());
-        //f.setInstances(new ArrayList<Instance>());
         activeProject.getCadfiles().add(f);
 
-        String filedest = destination.concat(getActiveProject().getUuid()+"/"+f.getUuid()+"/");
-        Path path = Paths.get(filedest);
-        try {
-            InputStream in = file.getInputStream();
-            
-            Files.createDirectories(path);
-            System.out.println("Directory created successfully at: " + path.toAbsolutePath());
-                    
-                    
-            // write the inputStream to a FileOutputStream
-            OutputStream out = new FileOutputStream(new File(filedest + fileName));
-            int read = 0;
-            byte[] bytes = new byte[1024];
-            while ((read = in.read(bytes)) != -1) {
-                out.write(bytes, 0, read);
-            }
-            in.close();
-            out.flush();
-            out.close();
-            System.out.println("New file uploaded: " + (filedest + fileName));
-            
-
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
-        }        
-        
-        String command; // for holding command line instructions
-        try {
-            Runtime rt = Runtime.getRuntime();
-            command = String.format("/usr/local/bin/stepguru %s --out %s -i",(filedest + fileName), filedest);
-            System.out.println("* = - = * = - = Executing STEPGuru * = - = * = - = *");
-            Process pr = null;
-            try{ 
-                pr = rt.exec(command);
-            } catch (Exception e) {
-                System.out.println("Error while trying to execute stepguru: "+e.getMessage());
-            }
-            BufferedReader reader = new BufferedReader(new InputStreamReader(pr.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(request.getSession().getId()+ " : " +line);
-                if (line.startsWith("******") || line.contains("info")) {
-                    userController.sendUpdate(line);
-                }
-            }
-            pr.waitFor();
-        } catch (InterruptedException ex) {
-                System.getLogger(ProjectController.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
-        } catch (IOException ex) {
-            System.getLogger(ProjectController.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
-        } 
-
-        
-        // Parse assembly.json
-        try (JsonReader jsonReader = Json.createReader(new StringReader(Files.readString(Paths.get(filedest+"assembly.json"))))) {
-
-            JsonObject json = jsonReader.readObject();
-            JsonArray definitions = json.getJsonArray("definitions");
-
-            // Initialize the definitions map (in-memory only)
-            Map<String, Object> definitionsEntityMap = new HashMap<>();
-
-            System.out.println("=== Parsing Definitions (in memory) ===");
-
-            // STEP 1: Create entities in memory - NO PERSIST YET
-            for (JsonObject d : definitions.getValuesAs(JsonObject.class)) {
-                String persid    = d.getString("id");
-                String name      = d.getString("name");
-                String shapeType = d.getString("shapeType");
-
-                if (shapeType.equals("COMPOUND")) {
-                    System.out.println("Creating assembly in memory: " + name);
-                    Assembly assembly = new Assembly();
-                    assembly.setPersid(persid);
-                    assembly.setName(name);
-                    assembly.setAssemblies(new ArrayList<>());
-                    assembly.setParts(new ArrayList<>());
-                    definitionsEntityMap.put(persid, assembly);
-                }
-
-                if (shapeType.equals("SOLID")) {
-                    System.out.println("Creating part in memory: " + name);
-                    Part p = new Part();
-                    p.setPersid(persid);
-                    p.setName(name);
-                    p.setCadfile(f);
-                    
-                    String partType = d.getString("partType");
-                    System.out.println("Found partType: "+partType);
-                    if (partType.equals("TUBE_RECTANGULAR_BENT")) {
-                        p.setShape(em.find(Category.class, 9L));  // BENT_TUBE_RECTANGULAR
-                        p.setSectionWidth(d.getJsonNumber("width").bigDecimalValue());
-                        p.setSectionHeight(d.getJsonNumber("height").bigDecimalValue());
-                        p.setPartLength(d.getJsonNumber("length").bigDecimalValue());
-                        p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
-                        p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
-                        p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
-                    }
-                    if (partType.equals("TUBE_RECTANGULAR")) {
-                        p.setShape(em.find(Category.class, 7L));  // TUBE_RECTANGULAR
-                        p.setSectionWidth(d.getJsonNumber("width").bigDecimalValue());
-                        p.setSectionHeight(d.getJsonNumber("height").bigDecimalValue());
-                        p.setPartLength(d.getJsonNumber("length").bigDecimalValue());
-                        p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
-                        p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
-                        p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
-                    }
-                    if (partType.equals("TUBE_ROUND_BENT")) {
-                        p.setShape(em.find(Category.class, 10L));  // BENT_TUBE_ROUND
-                        p.setDiameter(d.getJsonNumber("diameter").bigDecimalValue());
-                        p.setPartLength(d.getJsonNumber("length").bigDecimalValue());
-                        p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
-                        p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
-                        p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
-                    }
-                    if (partType.equals("TUBE_ROUND")) {
-                        p.setShape(em.find(Category.class, 8L));  // TUBE_ROUND
-                        p.setDiameter(d.getJsonNumber("diameter").bigDecimalValue());
-                        p.setPartLength(d.getJsonNumber("length").bigDecimalValue());
-                        p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
-                        p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
-                        p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
-                    }
-                    if (partType.equals("SHEET_METAL_FLAT")) {
-                        p.setShape(em.find(Category.class, 5L));  // SHEET_METAL_FLAT
-                        p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
-                        p.setFlatTotalContourLength(d.getJsonNumber("cutLength").bigDecimalValue());
-                        p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
-                        p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
-                        p.setFlatObbWidth(d.getJsonNumber("flatPatternWidth").bigDecimalValue());
-                        p.setFlatObbLength(d.getJsonNumber("flatPatternLength").bigDecimalValue());
-                    }
-                    if (partType.equals("SHEET_METAL_FOLDED")) {
-                        p.setShape(em.find(Category.class, 6L));  // SHEET_METAL_FOLDED
-                        p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
-                        p.setFlatTotalContourLength(d.getJsonNumber("cutLength").bigDecimalValue());
-                        p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
-                        p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
-                        p.setBends(d.getJsonNumber("numBends").longValue());
-                        p.setFlatObbWidth(d.getJsonNumber("flatPatternWidth").bigDecimalValue());
-                        p.setFlatObbLength(d.getJsonNumber("flatPatternLength").bigDecimalValue());
-                    }
-                    if (partType.equals("UNKNOWN")) {
-                        p.setShape(em.find(Category.class, 4L));  // UNRECOGNIZED
-                    }                    
-                    // check 
-                    definitionsEntityMap.put(persid, p);
-                }
-            }
+        return f;
+    }
 
-            // STEP 2: Traverse and build relationships
-            System.out.println("\n=== Building Assembly Hierarchy ===");
-            JsonObject root = json.getJsonObject("root");
-            Assembly rootAssembly = traverseInstance(root, definitionsEntityMap, f);
-
-            // STEP 3: Persist everything via cascade
-            System.out.println("\n=== Persisting to Database ===");
-            f.setRoot(rootAssembly);
-            em.persist(f);  // Cascades to parts via CADFile
-            if (rootAssembly != null) {
-                em.persist(rootAssembly);  // Cascades to child assemblies and their parts
-                System.out.println("Successfully persisted CADFile and assembly tree");
-            } else {
-                System.out.println("Successfully persisted CADFile (single part, no assembly)");
-            }
+    private ImportJob queueImport(CADFile f, String filedest, String fileName, UploadWriter.Stored stored,
+                                  long uploadMillis) {
+        em.persist(f);
 
-        // STEP 4: Run amatix for folded sheet metal parts
-            System.out.println("\n=== Running Amatix for Folded Sheet Metal Parts ===");
-            System.out.println("CADFile has " + f.getParts().size() + " parts");
-            for (Object entity : definitionsEntityMap.values()) {
-                if (entity instanceof Part) {
-                    Part part = (Part) entity;
-                    System.out.println("Checking part: " + part.getName() + " with shape: " +
-                        (part.getShape() != null ? part.getShape().getKey() : "null"));
-                    if (part.getShape() != null && part.getShape().getKey().equals("SHEET_METAL_FOLDED")) {
-                        System.out.println("Found SHEET_METAL_FOLDED part: " + part.getName() + " persid: " + part.getPersid());
-                        runAmatix(filedest, part);
-                    }
-                }
-            }
-
-        } catch (IOException ex) {
-            System.getLogger(ProjectController.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+        // Conversion, persistence and simulation continue on the import executor
+        ImportJob job = importService.submit(activeProject, f, filedest, fileName, userController.getWsids(),
+                getImportTenant(), stored.getSize(), uploadMillis, stored.getStepScan());
+        pendingImports.put(job.getId(), 0);
+        lastImportJobId = job.getId();
+        userController.sendUpdate("Import queued for " + fileName);
+        StepScan scan = job.getStepScan();
+        if (scan != null && scan.getEstimatedRows() >= ImportConfig.getLargeImportWarnRows()) {
+            userController.sendUpdate(fileName + " is a large assembly (about " + scan.getProducts() + " parts and "
+                    + scan.getOccurrences() + " instances); the import will take a while");
         }
 
-
-
-
         // Invalidate cached tree since new data was added
         invalidateAssemblyTree();
-
-        // Store last uploaded part info for auto-loading in viewer
-        // Clear first to avoid stale data mismatch
-        lastUploadedCadfileUuid = null;
-        lastUploadedPartPersid = null;
-
-        if (!f.getParts().isEmpty()) {
-            lastUploadedCadfileUuid = f.getUuid();
-            lastUploadedPartPersid = f.getParts().iterator().next().getPersid();
-        } else if (f.getRoot() != null) {
-            lastUploadedCadfileUuid = f.getUuid();
-            lastUploadedPartPersid = f.getRoot().getPersid();
+        return job;
+    }
+    /**
+     * Imports are shared fairly between organizations; users without one
+     * and anonymous uploads count as their own tenant.
+     */
+    private String getImportTenant() {
+        User u = userController.getUser();
+        if (u == null) {
+            return "project:" + activeProject.getUuid();
         }
-        // If neither condition is true, both remain null and hasLastUploaded returns false
-
-        // TODO: Do not redirect if it is the same page!!!
-        try {
-            externalContext.redirect("project.xhtml");
-        } catch (IOException e) {
-            // Handle the IOException
-            e.printStackTrace();
+        if (u.getOrganization() != null) {
+            return "org:" + u.getOrganization().getId();
         }
+        return "user:" + u.getId();
     }
 
-    private void runAmatix(String filedest, Part part) {
-        String persid = part.getPersid();
-        try {
-            String stepFile = filedest + "out_" + persid + "_1.step";
-            String outDir = filedest + persid + "-cam_simulation";
-
-            // Check if STEP file exists
-            if (!Files.exists(Paths.get(stepFile))) {
-                System.out.println("Amatix: STEP file not found: " + stepFile);
-                userController.sendUpdate("Skipping bend simulation - STEP file not found for " + persid);
-                return;
-            }
-
-            // Create output directory if it doesn't exist
-            Path outPath = Paths.get(outDir);
-            if (!Files.exists(outPath)) {
-                Files.createDirectories(outPath);
-            }
-
-            String command = String.format(
-                "/usr/local/bin/amatix %s --tool-dir /usr/local/share/amatix/tools --margin 0.005 --out-dir %s",
-                stepFile, outDir
-            );
-
-            System.out.println("* = - = * = - = Executing Amatix for " + persid + " * = - = * = - = *");
-            userController.sendUpdate("Running bend simulation for " + persid + "...");
-
-            Runtime rt = Runtime.getRuntime();
-            Process pr = rt.exec(command);
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(pr.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println("amatix: " + line);
-                if (line.contains("info") || line.contains("error") || line.contains("warning")) {
-                    userController.sendUpdate(line);
-                }
-            }
-
-            BufferedReader errorReader = new BufferedReader(new InputStreamReader(pr.getErrorStream()));
-            while ((line = errorReader.readLine()) != null) {
-                System.out.println("amatix error: " + line);
-            }
-
-            int exitCode = pr.waitFor();
-            if (exitCode == 0) {
-                System.out.println("Amatix completed successfully for " + persid);
-                userController.sendUpdate("Bend simulation complete for " + persid);
-
-                // Parse simulation.json to check for collisions and warnings
-                parseSimulationResults(outDir, part);
-            } else {
-                System.out.println("Amatix failed with exit code " + exitCode + " for " + persid);
-                userController.sendUpdate("Bend simulation failed for " + persid);
-            }
 
-        } catch (IOException | InterruptedException ex) {
-            System.getLogger(ProjectController.class.getName()).log(System.Logger.Level.ERROR,
-                "Error running amatix for " + persid, ex);
-            userController.sendUpdate("Error running bend simulation for " + persid);
+    /**
+     * @return true if this session may see the project: it is the active
+     *         project, or one of the logged in user's projects
+     */
+    public boolean ownsProject(Long projectId) {
+        if (projectId == null) {
+            return false;
+        }
+        if (activeProject != null && projectId.equals(activeProject.getId())) {
+            return true;
+        }
+        User u = userController.getUser();
+        if (u == null) {
+            return false;
         }
+        return em.createQuery(
+            "SELECT COUNT(p) FROM User u JOIN u.projects p WHERE u.id = :userId AND p.id = :projectId", Long.class)
+            .setParameter("userId", u.getId())
+            .setParameter("projectId", projectId)
+            .getSingleResult() > 0;
     }
 
     /**
-     * Parse simulation.json to extract collision and warning information.
+     * Stage timings of the finished imports of the active project.
      */
-    private void parseSimulationResults(String outDir, Part part) {
-        Path simulationFile = Paths.get(outDir, "simulation.json");
-
-        if (!Files.exists(simulationFile)) {
-            System.out.println("simulation.json not found at: " + simulationFile);
-            return;
+    public List<ImportTimeline> getImportTimelines() {
+        if (activeProject == null || activeProject.getId() == null) {
+            return new ArrayList<>();
         }
+        return importTimelineService.findForProject(activeProject.getId());
+    }
 
-        try {
-            String jsonContent = Files.readString(simulationFile);
-            JsonReader jsonReader = Json.createReader(new java.io.StringReader(jsonContent));
-            JsonObject simulation = jsonReader.readObject();
-            jsonReader.close();
-
-            // Check for warnings
-            JsonArray warnings = simulation.getJsonArray("warnings");
-            boolean hasWarnings = warnings != null && !warnings.isEmpty();
-            part.setHasWarnings(hasWarnings);
-
-            if (hasWarnings) {
-                // Store warnings as JSON string
-                part.setSimulationWarnings(warnings.toString());
-                System.out.println("Part " + part.getName() + " has " + warnings.size() + " warnings");
-                for (int i = 0; i < warnings.size(); i++) {
-                    System.out.println("  Warning: " + warnings.getString(i));
-                }
-            }
-
-            // Check for collisions in any bend sequence step
-            boolean hasCollisions = false;
-            JsonArray sequence = simulation.getJsonArray("sequence");
-            if (sequence != null) {
-                for (int i = 0; i < sequence.size(); i++) {
-                    JsonObject step = sequence.getJsonObject(i);
-                    JsonArray collisions = step.getJsonArray("collisions");
-                    if (collisions != null && !collisions.isEmpty()) {
-                        hasCollisions = true;
-                        System.out.println("Part " + part.getName() + " has collisions at step " +
-                            step.getInt("stepIndex") + ": " + collisions.toString());
-                        break;
-                    }
-                }
-            }
-            part.setHasCollisions(hasCollisions);
-
-            if (hasCollisions) {
-                System.out.println("Part " + part.getName() + " is INFEASIBLE (has collisions)");
-                userController.sendUpdate("WARNING: Part " + part.getName() + " has collisions - infeasible!");
-            } else if (hasWarnings) {
-                System.out.println("Part " + part.getName() + " is feasible but has warnings");
-                userController.sendUpdate("Part " + part.getName() + " has manufacturing warnings");
-            } else {
-                System.out.println("Part " + part.getName() + " is fully feasible");
-            }
-
-            // Part is already managed by EntityManager, changes will be persisted
-            em.merge(part);
-
-        } catch (IOException e) {
-            System.err.println("Error reading simulation.json: " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("Error parsing simulation.json: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Import jobs started from this session for the active project.
+     */
+    public List<ImportJob> getImportJobs() {
+        if (activeProject == null || activeProject.getId() == null) {
+            return new ArrayList<>();
         }
+        return importService.getJobsForProject(activeProject.getId());
     }
 
+    /**
+     * Makes the next upload a new revision of {@code cadfile}: parts that
+     * did not change keep their material, manual price and bend simulation,
+     * and the previous revision drops out of the tree and the quote.
+     */
+    public void reviseCadFile(CADFile cadfile) {
+        revisionTarget = cadfile;
+        userController.sendUpdate("Drop the new revision of " + cadfile.getName());
+    }
 
-
-    private Assembly traverseInstance(JsonObject instance,
-                                       Map<String, Object> definitionsEntityMap,
-                                       CADFile cadFile) {
-        if (instance == null) {
-            return null;
+    /**
+     * Same as {@link #reviseCadFile(CADFile)} for a CADFile of the active
+     * project given by uuid.
+     *
+     * @return false if the active project has no such CADFile
+     */
+    public boolean reviseCadFile(String cadfileUuid) {
+        if (activeProject == null || activeProject.getCadfiles() == null) {
+            return false;
         }
-
-        String instanceId = instance.getString("id");
-        String definitionId = instance.getString("definitionId");
-        Object entity = definitionsEntityMap.get(definitionId);
-
-        if (entity == null) {
-            System.out.println("Warning: No entity found for definitionId: " + definitionId);
-            return null;
+        for (CADFile cf : activeProject.getCadfiles()) {
+            if (cf.getUuid().equals(cadfileUuid)) {
+                reviseCadFile(cf);
+                return true;
+            }
         }
+        return false;
+    }
 
-        JsonArray children = instance.getJsonArray("children");
-        boolean hasChildren = (children != null && !children.isEmpty());
-
-        if (entity instanceof Assembly) {
-            Assembly assembly = (Assembly) entity;
+    public CADFile getRevisionTarget() {
+        return revisionTarget;
+    }
 
-            if (hasChildren) {
-                for (int i = 0; i < children.size(); i++) {
-                    JsonObject childInstance = children.getJsonObject(i);
-                    String childDefId = childInstance.getString("definitionId");
-                    Object childEntity = definitionsEntityMap.get(childDefId);
+    public void cancelRevision() {
+        revisionTarget = null;
+    }
 
-                    if (childEntity instanceof Assembly) {
-                        Assembly childAssembly = traverseInstance(childInstance, definitionsEntityMap, cadFile);
-                        if (childAssembly != null) {
-                            childAssembly.setParent(assembly);  // Set parent reference
-                            assembly.getAssemblies().add(childAssembly);
-                        }
-                    } else if (childEntity instanceof Part) {
-                        Part childPart = (Part) childEntity;
-                        assembly.getParts().add(childPart);
-                        cadFile.getParts().add(childPart);  // Also add to CADFile's flat list
-
-                        // Create Instance entity with transformation
-                        Instance inst = createInstanceFromJson(childInstance, childPart, null, cadFile);
-                        if (inst != null) {
-                            em.persist(inst);
-                            System.out.println("Created instance for part: " + childPart.getName() +
-                                             " persid: " + inst.getPersid() +
-                                             " hasTransform: " + inst.hasTransform());
-                        }
-                    }
-                }
+    /**
+     * Batches of this session's imports into the active project that are
+     * still running.
+     */
+    public List<ImportBatch> getImportBatches() {
+        List<ImportBatch> batches = new ArrayList<>();
+        for (ImportJob job : getImportJobs()) {
+            ImportBatch batch = job.getBatch();
+            if (batch != null && !batch.isFinished() && !batches.contains(batch)) {
+                batches.add(batch);
             }
-
-            System.out.println("Built assembly: " + assembly.getName() +
-                              " [" + assembly.getAssemblies().size() + " sub-assemblies, " +
-                              assembly.getParts().size() + " parts]");
-
-            return assembly;
         }
+        return batches;
+    }
 
-        // Handle case where root is a single Part (not an Assembly)
-        if (entity instanceof Part) {
-            Part part = (Part) entity;
-            cadFile.getParts().add(part);
-            System.out.println("Added single part to CADFile: " + part.getName());
-
-            // Create Instance entity for root part
-            Instance inst = createInstanceFromJson(instance, part, null, cadFile);
-            if (inst != null) {
-                em.persist(inst);
-                System.out.println("Created instance for root part: " + part.getName());
-            }
+    /**
+     * Cancels an import started from this session.
+     */
+    public void cancelImport(String jobId) {
+        ImportJob job = importService.getJob(jobId);
+        if (job == null || !pendingImports.containsKey(jobId)) {
+            return;
         }
-
-        return null;
+        importService.cancel(job, false);
+        FacesContext.getCurrentInstance().addMessage(null,
+            new FacesMessage(FacesMessage.SEVERITY_INFO, "Import cancelled", job.getFileName()));
     }
 
     /**
-     * Create an Instance entity from the assembly.json instance node.
-     * Extracts the transformation matrix if present.
+     * Imports nobody is waiting for any more are stopped when the session
+     * ends.
      */
-    private Instance createInstanceFromJson(JsonObject instanceJson, Part part, Assembly assembly, CADFile cadFile) {
-        Instance inst = new Instance();
-        inst.setCadfile(cadFile);
-        inst.setPart(part);
-        inst.setAssembly(assembly);
-
-        // Get the instance persid from JSON
-        String persid = instanceJson.getString("id");
-        inst.setPersid(persid);
-
-        // Extract transformation matrix if present
-        if (instanceJson.containsKey("transform") && !instanceJson.isNull("transform")) {
-            JsonArray transformArray = instanceJson.getJsonArray("transform");
-            if (transformArray != null && transformArray.size() == 16) {
-                double[] transform = new double[16];
-                for (int i = 0; i < 16; i++) {
-                    transform[i] = transformArray.getJsonNumber(i).doubleValue();
-                }
-                inst.setTransformFromArray(transform);
-                System.out.println("  Transform set for " + persid + ": Tx=" +
-                    String.format("%.2f", inst.getTranslationX()) + " Ty=" +
-                    String.format("%.2f", inst.getTranslationY()) + " Tz=" +
-                    String.format("%.2f", inst.getTranslationZ()));
+    @PreDestroy
+    public void cancelPendingImports() {
+        for (String jobId : pendingImports.keySet()) {
+            ImportJob job = importService.getJob(jobId);
+            if (job != null) {
+                importService.cancel(job, false);
             }
         }
+        pendingImports.clear();
+    }
 
-        return inst;
-    }    
-
-    
+    /**
+     * Drops the cached tree once one of this session's imports has saved
+     * parts or finished, so the next render picks up the new parts and
+     * simulation results.
+     */
+    private void collectFinishedImports() {
+        boolean changed = false;
+        for (Iterator<Map.Entry<String, Integer>> it = pendingImports.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Integer> entry = it.next();
+            ImportJob job = importService.getJob(entry.getKey());
+            if (job == null || job.isFinished()) {
+                it.remove();
+                changed = true;
+            } else if (job.getTreeVersion() != entry.getValue()) {
+                entry.setValue(job.getTreeVersion());
+                changed = true;
+            }
+        }
+        if (changed) {
+            invalidateAssemblyTree();
+        }
+    }
 
-    
-    
     private static final Pattern INVALID_FILENAME_CHARS = 
     Pattern.compile("[^a-zA-Z0-9\\.\\-_]"); // Allows alphanumeric, dot, hyphen, underscore
 
@@ -927,10 +846,17 @@ public class ProjectController implements Serializable {
         return (Material)em.createQuery("select m from Material m order by ABS(m.thickness - :thickness").setParameter("thickness", thickness).getSingleResult();
     }
     
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void deleteProject(Long pid) {
-        
-        
+        // Imports are stopped before the transaction, a running one may take a while
+        if (!importService.cancelForProject(pid)) {
+            importStillStopping();
+            return;
+        }
+        inTransaction(() -> removeProject(pid));
+    }
 
+    private void removeProject(Long pid) {
         try {
             User u = em.find(User.class, userController.getUser().getId());
             Project p = em.find(Project.class, pid);
@@ -1006,6 +932,7 @@ public class ProjectController implements Serializable {
     }
 
     public TreeNode<TreeNodeData> getAssemblyTree() {
+        collectFinishedImports();
         if (activeProject == null || activeProject.getId() == null) {
             cachedAssemblyTree = null;
             cachedProjectId = null;
@@ -1041,9 +968,17 @@ public class ProjectController implements Serializable {
         System.out.println("Fetched project with " + project.getCadfiles().size() + " cadfiles");
 
         for (CADFile cf : project.getCadfiles()) {
+            if (Boolean.TRUE.equals(cf.getSuperseded())) {
+                // Replaced by a newer revision further down the list
+                continue;
+            }
             if (cf.getRoot() != null) {
-                // Has assembly structure
-                buildAssemblyTree(cf.getRoot(), root, cf);
+                // Has assembly structure, loaded in a few queries rather than one per assembly
+                long start = System.currentTimeMillis();
+                AssemblyHierarchy hierarchy = AssemblyHierarchy.load(em, cf);
+                System.out.println("Loaded " + hierarchy.getAssemblyCount() + " assemblies of " + cf.getName()
+                        + " in " + (System.currentTimeMillis() - start) + " ms");
+                buildAssemblyTree(cf.getRoot(), root, cf, hierarchy);
             } else if (cf.getParts() != null && !cf.getParts().isEmpty()) {
                 // Single parts without assembly structure
                 for (Part part : cf.getParts()) {
@@ -1059,8 +994,9 @@ public class ProjectController implements Serializable {
             }
         }
 
-        // Cache the tree
+        // Cache the tree, values derived from the old one are stale
         cachedAssemblyTree = root;
+        renderMemo.invalidate();
         cachedProjectId = activeProject.getId();
         treeQuoted = false;
 
@@ -1076,6 +1012,7 @@ public class ProjectController implements Serializable {
      */
     public void invalidateAssemblyTree() {
         cachedAssemblyTree = null;
+        renderMemo.invalidate();
         cachedProjectId = null;
         treeQuoted = false;
 
@@ -1100,7 +1037,25 @@ public class ProjectController implements Serializable {
     /**
      * Delete a part or assembly from the project
      */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void deleteNode(TreeNodeData nodeData) {
+        if (nodeData != null && "assembly".equals(nodeData.getType()) && nodeData.getAssembly() != null) {
+            // Deleting a root assembly deletes its CADFile, stop the import first
+            List<Long> cadfileIds = em.createQuery(
+                "SELECT cf.id FROM CADFile cf WHERE cf.root.id = :assemblyId", Long.class)
+                .setParameter("assemblyId", nodeData.getAssembly().getId())
+                .getResultList();
+            for (Long cadfileId : cadfileIds) {
+                if (!importService.cancelForCadFile(cadfileId)) {
+                    importStillStopping();
+                    return;
+                }
+            }
+        }
+        inTransaction(() -> removeNode(nodeData));
+    }
+
+    private void removeNode(TreeNodeData nodeData) {
         System.out.println("=== deleteNode START ===");
         System.out.println("deleteNode called with: " + (nodeData != null ? nodeData.getType() + " - " + nodeData.getName() : "null"));
 
@@ -1133,6 +1088,7 @@ public class ProjectController implements Serializable {
                     System.out.println("Found " + parentAssemblies.size() + " parent assemblies");
 
                     for (Assembly parentAssembly : parentAssemblies) {
+                        AssemblyIndex.removePart(em, parentAssembly);
                         parentAssembly.getParts().remove(part);
                         System.out.println("Removed part from Assembly.parts");
                     }
@@ -1157,9 +1113,14 @@ public class ProjectController implements Serializable {
 
                     // Collect all parts and assemblies for file deletion BEFORE modifying entities
                     List<Part> allParts = new ArrayList<>();
-                    collectPartsFromAssembly(assembly, allParts);
                     List<Assembly> allAssemblies = new ArrayList<>();
-                    collectAssembliesFromAssembly(assembly, allAssemblies);
+                    if (AssemblyIndex.isIndexed(assembly)) {
+                        allParts.addAll(AssemblyIndex.findParts(em, assembly));
+                        allAssemblies.addAll(AssemblyIndex.findAssemblies(em, assembly));
+                    } else {
+                        collectPartsFromAssembly(assembly, allParts);
+                        collectAssembliesFromAssembly(assembly, allAssemblies);
+                    }
 
                     // Collect persids for file deletion
                     List<String> partPersids = new ArrayList<>();
@@ -1172,6 +1133,9 @@ public class ProjectController implements Serializable {
                     }
                     System.out.println("Collected " + allParts.size() + " parts and " + allAssemblies.size() + " assemblies");
 
+                    // Take the subtree out of the hierarchy index and the counts above it
+                    AssemblyIndex.removeSubtree(em, assembly);
+
                     // Remove from parent's assemblies collection
                     Assembly parent = assembly.getParent();
                     if (parent != null) {
@@ -1223,7 +1187,11 @@ public class ProjectController implements Serializable {
                             managedProject.getCadfiles().remove(cf);
                         }
 
+                        // The revision it replaced shows up in the tree again
+                        restorePreviousRevision(cf);
+
                         // Delete the CADFile entity
+                        AssemblyIndex.removeCadFile(em, cf.getId());
                         em.remove(cf);
                         System.out.println("CADFile deleted: " + cf.getId());
                     }
@@ -1256,15 +1224,108 @@ public class ProjectController implements Serializable {
         }
     }
 
+    /**
+     * Runs a delete in its own transaction. The delete methods run without
+     * one so that stopping imports, which waits for the worker, does not
+     * hold database locks.
+     */
+    private void inTransaction(Runnable work) {
+        try {
+            userTransaction.begin();
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                userTransaction.rollback();
+                throw e;
+            }
+            userTransaction.commit();
+        } catch (NotSupportedException | SystemException | RollbackException
+                | HeuristicMixedException | HeuristicRollbackException e) {
+            System.out.println("Delete rolled back: " + e.getMessage());
+            FacesContext.getCurrentInstance().addMessage(null,
+                new FacesMessage(FacesMessage.SEVERITY_ERROR, "Error", "Could not delete: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Work that stores an upload and may fail with an IOException.
+     */
+    private interface UploadWork<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Stores an upload in its own transaction, for the upload methods that
+     * run without one. The transaction is rolled back if {@code work}
+     * throws, and a project it created is forgotten again.
+     */
+    private <T> T inUploadTransaction(UploadWork<T> work) throws IOException {
+        Project before = activeProject;
+        Long beforeId = before != null ? before.getId() : null;
+        try {
+            userTransaction.begin();
+            T result;
+            try {
+                result = work.run();
+            } catch (IOException | RuntimeException e) {
+                userTransaction.rollback();
+                if (beforeId == null) {
+                    activeProject = before;
+                    if (before != null) {
+                        before.setId(null);
+                    }
+                }
+                throw e;
+            }
+            userTransaction.commit();
+            return result;
+        } catch (NotSupportedException | SystemException | RollbackException
+                | HeuristicMixedException | HeuristicRollbackException e) {
+            throw new IOException("Could not store the upload: " + e.getMessage(), e);
+        }
+    }
+
+    private void importStillStopping() {
+        FacesContext.getCurrentInstance().addMessage(null,
+            new FacesMessage(FacesMessage.SEVERITY_WARN, "Import still stopping",
+                "An import is still stopping, please try again in a moment."));
+    }
+
+    /**
+     * Clears the superseded flag of the revision {@code cf} replaced, so
+     * deleting a revision brings back the one before it instead of leaving
+     * it hidden.
+     */
+    private void restorePreviousRevision(CADFile cf) {
+        if (cf.getPreviousRevisionId() == null) {
+            return;
+        }
+        CADFile previous = em.find(CADFile.class, cf.getPreviousRevisionId());
+        if (previous != null && Boolean.TRUE.equals(previous.getSuperseded())) {
+            previous.setSuperseded(false);
+            System.out.println("Restored previous revision CADFile ID: " + previous.getId());
+        }
+    }
+
     /**
      * Delete an entire project and all its contents.
      */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void deleteProject(Project project) {
         System.out.println("=== deleteProject START ===");
         if (project == null) {
             System.out.println("Project is null, returning");
             return;
         }
+        // Stop imports first so nothing writes into the project while it is removed
+        if (!importService.cancelForProject(project.getId())) {
+            importStillStopping();
+            return;
+        }
+        inTransaction(() -> removeProject(project));
+    }
+
+    private void removeProject(Project project) {
 
         try {
             Long projectId = project.getId();
@@ -1322,6 +1383,7 @@ public class ProjectController implements Serializable {
                     managedProject.getCadfiles().remove(cf);
 
                     // Delete the CADFile
+                    AssemblyIndex.removeCadFile(em, cf.getId());
                     em.remove(cf);
                     System.out.println("Deleted CADFile: " + cf.getId());
                 }
@@ -1374,116 +1436,57 @@ public class ProjectController implements Serializable {
         }
     }
 
-    private void buildAssemblyTree(Assembly assembly, TreeNode<TreeNodeData> parentNode, CADFile cf) {
+    private void buildAssemblyTree(Assembly assembly, TreeNode<TreeNodeData> parentNode, CADFile cf,
+                                   AssemblyHierarchy hierarchy) {
         TreeNodeData data = new TreeNodeData(assembly.getName(), "assembly", null);
         data.setAssembly(assembly);
         data.setCadfile(cf);
         TreeNode<TreeNodeData> assemblyNode = new DefaultTreeNode<>("assembly", data, parentNode);
         assemblyNode.setExpanded(true);
-
-        // Track unique child assemblies by persid
-        Map<String, TreeNodeData> uniqueAssemblies = new HashMap<>();
-        Map<String, Assembly> assemblyMap = new HashMap<>();
-
-        if (assembly.getAssemblies() != null) {
-            for (Assembly childAssembly : assembly.getAssemblies()) {
-                String persid = childAssembly.getPersid();
-                if (uniqueAssemblies.containsKey(persid)) {
-                    uniqueAssemblies.get(persid).setQuantity(uniqueAssemblies.get(persid).getQuantity() + 1);
-                } else {
-                    TreeNodeData childData = new TreeNodeData(childAssembly.getName(), "assembly", null);
-                    childData.setAssembly(childAssembly);
-                    childData.setCadfile(cf);
-                    uniqueAssemblies.put(persid, childData);
-                    assemblyMap.put(persid, childAssembly);
-                }
-            }
-        }
-
-        // Add unique child assemblies and recurse
-        for (String persid : uniqueAssemblies.keySet()) {
-            TreeNodeData childData = uniqueAssemblies.get(persid);
-            TreeNode<TreeNodeData> childNode = new DefaultTreeNode<>("assembly", childData, assemblyNode);
-            childNode.setExpanded(true);
-
-            // Recurse into child assembly's children
-            Assembly childAssembly = assemblyMap.get(persid);
-            addChildrenToNode(childAssembly, childNode, cf);
-        }
-
-        // Track unique parts by persid
-        Map<String, TreeNodeData> uniqueParts = new HashMap<>();
-
-        if (assembly.getParts() != null) {
-            for (Part part : assembly.getParts()) {
-                String persid = part.getPersid();
-                if (uniqueParts.containsKey(persid)) {
-                    uniqueParts.get(persid).setQuantity(uniqueParts.get(persid).getQuantity() + 1);
-                } else {
-                    TreeNodeData partData = new TreeNodeData(part.getName(), "part", part);
-                    partData.setCadfile(cf);
-                    partData.setPrice(BigDecimal.ZERO);
-                    partData.setFoldedSheetMetal(isFoldedSheetMetal(part));
-                    partData.setHasSimulation(hasSimulationData(part, cf));
-                    partData.setSimulationPath(getSimulationPath(part, cf));
-                    uniqueParts.put(persid, partData);
-                }
-            }
-        }
-
-        // Add unique parts
-        for (TreeNodeData partData : uniqueParts.values()) {
-            new DefaultTreeNode<>("part", partData, assemblyNode);
-        }
+        addChildrenToNode(assembly, assemblyNode, cf, hierarchy);
     }
 
-    private void addChildrenToNode(Assembly assembly, TreeNode<TreeNodeData> parentNode, CADFile cf) {
+    private void addChildrenToNode(Assembly assembly, TreeNode<TreeNodeData> parentNode, CADFile cf,
+                                   AssemblyHierarchy hierarchy) {
         // Track unique child assemblies by persid
-        Map<String, TreeNodeData> uniqueAssemblies = new HashMap<>();
+        Map<String, TreeNodeData> uniqueAssemblies = new LinkedHashMap<>();
         Map<String, Assembly> assemblyMap = new HashMap<>();
 
-        if (assembly.getAssemblies() != null) {
-            for (Assembly childAssembly : assembly.getAssemblies()) {
-                String persid = childAssembly.getPersid();
-                if (uniqueAssemblies.containsKey(persid)) {
-                    uniqueAssemblies.get(persid).setQuantity(uniqueAssemblies.get(persid).getQuantity() + 1);
-                } else {
-                    TreeNodeData childData = new TreeNodeData(childAssembly.getName(), "assembly", null);
-                    childData.setAssembly(childAssembly);
-                    childData.setCadfile(cf);
-                    uniqueAssemblies.put(persid, childData);
-                    assemblyMap.put(persid, childAssembly);
-                }
+        for (Assembly childAssembly : hierarchy.getChildren(assembly)) {
+            String persid = childAssembly.getPersid();
+            if (uniqueAssemblies.containsKey(persid)) {
+                uniqueAssemblies.get(persid).setQuantity(uniqueAssemblies.get(persid).getQuantity() + 1);
+            } else {
+                TreeNodeData childData = new TreeNodeData(childAssembly.getName(), "assembly", null);
+                childData.setAssembly(childAssembly);
+                childData.setCadfile(cf);
+                uniqueAssemblies.put(persid, childData);
+                assemblyMap.put(persid, childAssembly);
             }
         }
 
         // Add unique child assemblies and recurse
-        for (String persid : uniqueAssemblies.keySet()) {
-            TreeNodeData childData = uniqueAssemblies.get(persid);
-            TreeNode<TreeNodeData> childNode = new DefaultTreeNode<>("assembly", childData, parentNode);
+        for (Map.Entry<String, TreeNodeData> entry : uniqueAssemblies.entrySet()) {
+            TreeNode<TreeNodeData> childNode = new DefaultTreeNode<>("assembly", entry.getValue(), parentNode);
             childNode.setExpanded(true);
-
-            Assembly childAssembly = assemblyMap.get(persid);
-            addChildrenToNode(childAssembly, childNode, cf);
+            addChildrenToNode(assemblyMap.get(entry.getKey()), childNode, cf, hierarchy);
         }
 
         // Track unique parts by persid
-        Map<String, TreeNodeData> uniqueParts = new HashMap<>();
+        Map<String, TreeNodeData> uniqueParts = new LinkedHashMap<>();
 
-        if (assembly.getParts() != null) {
-            for (Part part : assembly.getParts()) {
-                String persid = part.getPersid();
-                if (uniqueParts.containsKey(persid)) {
-                    uniqueParts.get(persid).setQuantity(uniqueParts.get(persid).getQuantity() + 1);
-                } else {
-                    TreeNodeData partData = new TreeNodeData(part.getName(), "part", part);
-                    partData.setCadfile(cf);
-                    partData.setPrice(BigDecimal.ZERO);
-                    partData.setFoldedSheetMetal(isFoldedSheetMetal(part));
-                    partData.setHasSimulation(hasSimulationData(part, cf));
-                    partData.setSimulationPath(getSimulationPath(part, cf));
-                    uniqueParts.put(persid, partData);
-                }
+        for (Part part : hierarchy.getParts(assembly)) {
+            String persid = part.getPersid();
+            if (uniqueParts.containsKey(persid)) {
+                uniqueParts.get(persid).setQuantity(uniqueParts.get(persid).getQuantity() + 1);
+            } else {
+                TreeNodeData partData = new TreeNodeData(part.getName(), "part", part);
+                partData.setCadfile(cf);
+                partData.setPrice(BigDecimal.ZERO);
+                partData.setFoldedSheetMetal(isFoldedSheetMetal(part));
+                partData.setHasSimulation(hasSimulationData(part, cf));
+                partData.setSimulationPath(getSimulationPath(part, cf));
+                uniqueParts.put(persid, partData);
             }
         }
 
@@ -1502,9 +1505,9 @@ public class ProjectController implements Serializable {
             System.out.println("isFoldedSheetMetal: part " + part.getName() + " (persid=" + part.getPersid() + ") has null shape");
             return false;
         }
-        String shapeKey = part.getShape().getKey();
-        boolean isFolded = "SHEET_METAL_FOLDED".equals(shapeKey);
-        System.out.println("isFoldedSheetMetal: part " + part.getName() + " (persid=" + part.getPersid() + ") shape=" + shapeKey + " isFolded=" + isFolded);
+        ShapeCode shape = ShapeCode.of(part);
+        boolean isFolded = shape == ShapeCode.SHEET_METAL_FOLDED;
+        System.out.println("isFoldedSheetMetal: part " + part.getName() + " (persid=" + part.getPersid() + ") shape=" + shape + " isFolded=" + isFolded);
         return isFolded;
     }
 
@@ -1706,11 +1709,15 @@ public class ProjectController implements Serializable {
     /**
      * Counts the total number of elements (parts + assemblies) in an assembly recursively.
      * This includes all nested sub-assemblies and their parts.
+     * Uses the counts stored at import when the assembly has them.
      */
     public int getTotalElementCount(Assembly assembly) {
         if (assembly == null) {
             return 0;
         }
+        if (AssemblyIndex.isIndexed(assembly)) {
+            return assembly.getSubtreePartCount() + assembly.getSubtreeAssemblyCount();
+        }
         int count = 0;
 
         // Count direct parts
@@ -1753,10 +1760,11 @@ public class ProjectController implements Serializable {
      * Returns null if no recent upload or if the info has been cleared.
      */
     public String getLastUploadedGlbUrl() {
-        if (lastUploadedCadfileUuid != null && lastUploadedPartPersid != null && activeProject != null) {
+        ImportJob job = getLastImport();
+        if (job != null) {
             return "glbserver?projectid=" + activeProject.getUuid() +
-                   "&cadfile=" + lastUploadedCadfileUuid +
-                   "&persid=" + lastUploadedPartPersid;
+                   "&cadfile=" + job.getCadfileUuid() +
+                   "&persid=" + job.getPreviewPersid();
         }
         return null;
     }
@@ -1765,12 +1773,23 @@ public class ProjectController implements Serializable {
      * Clears the last uploaded part info after it has been loaded in the viewer.
      */
     public void clearLastUploaded() {
-        lastUploadedCadfileUuid = null;
-        lastUploadedPartPersid = null;
+        lastImportJobId = null;
     }
 
     public boolean getHasLastUploaded() {
-        return lastUploadedCadfileUuid != null && lastUploadedPartPersid != null && activeProject != null;
+        return getLastImport() != null;
+    }
+
+    /**
+     * The last import of this session, once it is done and belongs to the active project.
+     */
+    private ImportJob getLastImport() {
+        ImportJob job = importService.getJob(lastImportJobId);
+        if (job == null || activeProject == null || job.getState() != ImportState.DONE
+                || job.getPreviewPersid() == null || !job.getProjectId().equals(activeProject.getId())) {
+            return null;
+        }
+        return job;
     }
 
     /**
@@ -1778,6 +1797,10 @@ public class ProjectController implements Serializable {
      * Parts are grouped by name and their quantities are summed.
      */
     public List<BOMItem> getBomItems() {
+        return renderMemo.get("bomItems", this::buildBomItems);
+    }
+
+    private List<BOMItem> buildBomItems() {
         List<BOMItem> bomItems = new ArrayList<>();
 
         if (activeProject == null) {
@@ -1849,6 +1872,7 @@ public class ProjectController implements Serializable {
             System.out.println("Saved manual price for part " + item.getName() + ": " + item.getUnitCost());
             // Invalidate the cached tree to force recalculation
             cachedAssemblyTree = null;
+            renderMemo.invalidate();
         }
     }
 
@@ -2037,6 +2061,15 @@ public class ProjectController implements Serializable {
             return null;
         }
 
+        public ShapeCode getShapeCode() {
+            return ShapeCode.of(part);
+        }
+
+        public boolean isSheetMetal() {
+            ShapeCode shape = getShapeCode();
+            return shape != null && shape.isSheetMetal();
+        }
+
         // Simulation feasibility methods
         public boolean isInfeasible() {
             return part != null && Boolean.TRUE.equals(part.getHasCollisions());
@@ -2105,32 +2138,25 @@ public class ProjectController implements Serializable {
 
     /**
      * FlatTreeNode wraps TreeNodeData with depth and state info for custom HTML tree rendering.
+     * Depth and state are read from the {@link FlatTree} the node belongs to.
      */
     public static class FlatTreeNode {
-        private String nodeId;
-        private TreeNodeData data;
-        private int depth;
-        private boolean hasChildren;
-        private boolean expanded;
-        private boolean visible;
-
-        public FlatTreeNode(String nodeId, TreeNodeData data, int depth, boolean hasChildren) {
-            this.nodeId = nodeId;
+        private final FlatTree tree;
+        private final int index;
+        private final TreeNodeData data;
+
+        FlatTreeNode(FlatTree tree, int index, TreeNodeData data) {
+            this.tree = tree;
+            this.index = index;
             this.data = data;
-            this.depth = depth;
-            this.hasChildren = hasChildren;
-            this.expanded = true; // Default expanded
-            this.visible = true;
         }
 
-        public String getNodeId() { return nodeId; }
+        public String getNodeId() { return String.valueOf(index); }
         public TreeNodeData getData() { return data; }
-        public int getDepth() { return depth; }
-        public boolean isHasChildren() { return hasChildren; }
-        public boolean isExpanded() { return expanded; }
-        public void setExpanded(boolean expanded) { this.expanded = expanded; }
-        public boolean isVisible() { return visible; }
-        public void setVisible(boolean visible) { this.visible = visible; }
+        public int getDepth() { return tree.getDepth(index); }
+        public boolean isHasChildren() { return tree.hasChildren(index); }
+        public boolean isExpanded() { return tree.isExpanded(index); }
+        public boolean isVisible() { return tree.isVisible(index); }
 
         // Convenience getters that delegate to TreeNodeData
         public String getName() { return data.getName(); }
@@ -2156,103 +2182,110 @@ public class ProjectController implements Serializable {
         public boolean isHasManufacturingWarnings() { return data.isHasManufacturingWarnings(); }
         public String getSimulationWarnings() { return data.getSimulationWarnings(); }
 
-        public int getIndentPx() { return depth * 20; }
+        public int getIndentPx() { return getDepth() * 20; }
     }
 
     /**
-     * Get flat tree nodes for custom HTML tree rendering.
+     * Get the visible flat tree nodes for custom HTML tree rendering. The
+     * tree is flattened again only when the assembly tree was rebuilt.
      */
     public List<FlatTreeNode> getFlatTreeNodes() {
-        TreeNode<TreeNodeData> tree = getAssemblyTree();
-        List<FlatTreeNode> result = new ArrayList<>();
+        return renderMemo.get("flatTreeNodes", () -> getFlatTree().getVisibleNodes());
+    }
 
-        if (tree != null) {
-            flattenTree(tree, result, -1, ""); // Start at -1 so root children are at depth 0
+    private FlatTree getFlatTree() {
+        TreeNode<TreeNodeData> tree = getAssemblyTree();
+        if (flatTree == null || !flatTree.isOf(tree)) {
+            long start = System.currentTimeMillis();
+            flatTree = FlatTree.of(tree, flatTree);
+            System.out.println("Flattened " + flatTree.size() + " tree nodes in "
+                    + (System.currentTimeMillis() - start) + " ms");
         }
+        return flatTree;
+    }
 
-        // Initialize expanded state - default all expanded
-        if (expandedNodes.isEmpty() && !result.isEmpty()) {
-            for (FlatTreeNode node : result) {
-                if (node.isHasChildren()) {
-                    expandedNodes.add(node.getNodeId());
-                }
-            }
+    /**
+     * Toggle node expansion state.
+     */
+    public void toggleNode(String nodeId) {
+        if (flatTree == null) {
+            return;
+        }
+        try {
+            flatTree.toggle(Integer.parseInt(nodeId));
+            renderMemo.invalidate();
+        } catch (NumberFormatException e) {
+            System.out.println("Toggle node called with invalid id: " + nodeId);
         }
+    }
 
-        // Update visibility and expanded state
-        updateTreeVisibility(result);
+    /**
+     * Whether the tree is too long to render whole. The page then renders
+     * {@link #getTreeWindow()} between two spacers sized to the rows left
+     * out, and asks for another window as the tree scrolls.
+     */
+    public boolean isTreeWindowed() {
+        return getFlatTreeNodes().size() > TREE_WINDOW_ROWS;
+    }
 
-        return result;
+    /**
+     * Rows to render: every visible node, or the window starting at
+     * {@link #getTreeWindowOffset()} for large trees.
+     */
+    public List<FlatTreeNode> getTreeWindow() {
+        List<FlatTreeNode> nodes = getFlatTreeNodes();
+        if (nodes.size() <= TREE_WINDOW_ROWS) {
+            return nodes;
+        }
+        int offset = getTreeWindowOffset();
+        return nodes.subList(offset, Math.min(nodes.size(), offset + TREE_WINDOW_ROWS));
     }
 
-    private void flattenTree(TreeNode<TreeNodeData> node, List<FlatTreeNode> result, int depth, String parentId) {
-        TreeNodeData data = node.getData();
+    public int getTreeWindowOffset() {
+        // The tree may have shrunk since the offset was set
+        int count = getFlatTreeNodes().size();
+        return Math.max(0, Math.min(treeWindowOffset, count - TREE_WINDOW_ROWS));
+    }
 
-        // Skip the virtual root node (type "project")
-        if (data != null && !"project".equals(data.getType())) {
-            String nodeId = parentId + "_" + result.size();
-            boolean hasChildren = !node.getChildren().isEmpty();
-            FlatTreeNode flatNode = new FlatTreeNode(nodeId, data, depth, hasChildren);
-            result.add(flatNode);
+    public int getVisibleTreeNodeCount() {
+        return getFlatTreeNodes().size();
+    }
 
-            for (TreeNode<TreeNodeData> child : node.getChildren()) {
-                flattenTree(child, result, depth + 1, nodeId);
-            }
-        } else {
-            // Process children of root node
-            for (TreeNode<TreeNodeData> child : node.getChildren()) {
-                flattenTree(child, result, depth + 1, parentId);
-            }
-        }
+    public int getTreeWindowRows() {
+        return TREE_WINDOW_ROWS;
     }
 
-    private void updateTreeVisibility(List<FlatTreeNode> nodes) {
-        Set<String> visibleParents = new HashSet<>();
+    public int getTreeRowPx() {
+        return TREE_ROW_PX;
+    }
 
-        for (FlatTreeNode node : nodes) {
-            node.setExpanded(expandedNodes.contains(node.getNodeId()));
+    public int getTreeWindowTopPx() {
+        return getTreeWindowOffset() * TREE_ROW_PX;
+    }
 
-            // Root level nodes are always visible
-            if (node.getDepth() == 0) {
-                node.setVisible(true);
-                if (node.isExpanded()) {
-                    visibleParents.add(node.getNodeId());
-                }
-            } else {
-                // Check if parent is visible and expanded
-                String parentPrefix = node.getNodeId().substring(0, node.getNodeId().lastIndexOf('_'));
-                boolean parentVisible = false;
-                for (String vp : visibleParents) {
-                    if (node.getNodeId().startsWith(vp)) {
-                        parentVisible = true;
-                        break;
-                    }
-                }
-                node.setVisible(parentVisible);
-                if (node.isVisible() && node.isExpanded() && node.isHasChildren()) {
-                    visibleParents.add(node.getNodeId());
-                }
-            }
-        }
+    public int getTreeWindowBottomPx() {
+        int rendered = getTreeWindowOffset() + getTreeWindow().size();
+        return (getVisibleTreeNodeCount() - rendered) * TREE_ROW_PX;
     }
 
     /**
-     * Toggle node expansion state.
+     * Moves the tree window to the {@code offset} request parameter, sent
+     * by the scroll handler of the tree.
      */
-    public void toggleNode(String nodeId) {
-        System.out.println("Toggle node called with: " + nodeId);
-        if (expandedNodes.contains(nodeId)) {
-            expandedNodes.remove(nodeId);
-            System.out.println("Node collapsed: " + nodeId);
-        } else {
-            expandedNodes.add(nodeId);
-            System.out.println("Node expanded: " + nodeId);
+    public void scrollTreeWindow() {
+        String offset = FacesContext.getCurrentInstance().getExternalContext()
+                .getRequestParameterMap().get("offset");
+        try {
+            treeWindowOffset = Math.max(0, Integer.parseInt(offset));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid tree window offset: " + offset);
         }
     }
 
     /**
      * Delete a node from the flat tree (delegates to existing deleteNode logic).
      */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void deleteFlatNode(FlatTreeNode flatNode) {
         // Find the corresponding TreeNode and call existing delete
         TreeNode<TreeNodeData> tree = getAssemblyTree();
@@ -2296,6 +2329,16 @@ public class ProjectController implements Serializable {
             return new ArrayList<>();
         }
 
+        // Indexed assemblies get their subtree in one query
+        List<Assembly> assemblies = em.createQuery(
+            "SELECT a FROM Assembly a WHERE a.cadfileId = :cadfileId AND a.persid = :persid", Assembly.class)
+            .setParameter("cadfileId", cadFile.getId())
+            .setParameter("persid", assemblyPersid)
+            .getResultList();
+        if (assemblies.size() == 1 && AssemblyIndex.isIndexed(assemblies.get(0))) {
+            return AssemblyIndex.findInstances(em, assemblies.get(0));
+        }
+
         // Get all instances for this CADFile
         List<Instance> allInstances = getInstancesForCadFile(cadFile);
 
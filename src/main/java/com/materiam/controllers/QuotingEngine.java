@@ -5,6 +5,7 @@ import com.materiam.entities.Category;
 import com.materiam.entities.Part;
 import com.materiam.entities.Product;
 import com.materiam.entities.Property;
+import com.materiam.shapes.ShapeCode;
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.SessionScoped;
 import jakarta.inject.Inject;
@@ -112,7 +113,8 @@ public class QuotingEngine implements Serializable {
         } else if (data != null && "part".equals(data.getType())) {
             // This is a part node - calculate its cost only for quotable shapes
             Part part = data.getPart();
-            if (part != null && part.getShape() != null && isQuotableShape(part.getShape().getKey())) {
+            ShapeCode shape = ShapeCode.of(part);
+            if (shape != null && shape.isQuotable()) {
                 matchRawMaterial(data);
                 calculateCosts(data);
                 data.setQuoted(true);
@@ -133,36 +135,34 @@ public class QuotingEngine implements Serializable {
      */
     private void matchRawMaterial(TreeNodeData nodeData) {
         Part part = nodeData.getPart();
-        if (part == null || part.getShape() == null) {
+        ShapeCode shape = ShapeCode.of(part);
+        if (shape == null) {
             return;
         }
 
-        String shapeKey = part.getShape().getKey();
-
         // Get available alloys for this shape
-        String materialShapeKey = getMaterialShapeKey(shapeKey);
-        List<Category> availableAlloys = getAvailableAlloysForShape(materialShapeKey);
+        List<Category> availableAlloys = getAvailableAlloysForShape(shape.getMaterialShape().name());
         nodeData.setAvailableAlloys(availableAlloys);
 
         List<Product> candidates = new ArrayList<>();
 
-        switch (shapeKey) {
-            case "SHEET_METAL_FLAT":
-            case "SHEET_METAL_FOLDED":
+        switch (shape) {
+            case SHEET_METAL_FLAT:
+            case SHEET_METAL_FOLDED:
                 candidates = findSheetMetalMaterials(part);
                 break;
-            case "TUBE_RECTANGULAR":
+            case TUBE_RECTANGULAR:
                 candidates = findRectangularTubeMaterials(part);
                 break;
-            case "TUBE_ROUND":
+            case TUBE_ROUND:
                 candidates = findRoundTubeMaterials(part);
                 break;
-            case "BAR_ROUND":
+            case BAR_ROUND:
                 candidates = findRoundBarMaterials(part);
                 break;
             default:
                 // Try generic matching by shape
-                candidates = findMaterialsByShape(shapeKey, part);
+                candidates = findMaterialsByShape(shape.name(), part);
                 break;
         }
 
@@ -514,9 +514,9 @@ public class QuotingEngine implements Serializable {
         }
 
         // Calculate processing costs based on shape
-        if (part.getShape() != null) {
-            String shapeKey = part.getShape().getKey();
-            processingCost = calculateProcessingCost(part, shapeKey);
+        ShapeCode shape = ShapeCode.of(part);
+        if (shape != null) {
+            processingCost = calculateProcessingCost(part, shape);
         }
 
         nodeData.setMaterialCost(materialCost);
@@ -537,12 +537,12 @@ public class QuotingEngine implements Serializable {
         return dimX.multiply(dimY).multiply(dimZ).multiply(new BigDecimal("0.5")); // 50% fill factor
     }
 
-    private BigDecimal calculateProcessingCost(Part part, String shapeKey) {
+    private BigDecimal calculateProcessingCost(Part part, ShapeCode shape) {
         BigDecimal cost = BigDecimal.ZERO;
 
-        switch (shapeKey) {
-            case "SHEET_METAL_FLAT":
-            case "SHEET_METAL_FOLDED":
+        switch (shape) {
+            case SHEET_METAL_FLAT:
+            case SHEET_METAL_FOLDED:
                 // Laser cutting cost
                 BigDecimal contourLength = part.getFlatTotalContourLength();
                 if (contourLength != null && contourLength.compareTo(BigDecimal.ZERO) > 0) {
@@ -557,20 +557,22 @@ public class QuotingEngine implements Serializable {
                 }
 
                 // Bending cost for folded sheet metal
-                if ("SHEET_METAL_FOLDED".equals(shapeKey) && part.getBends() != null && part.getBends() > 0) {
+                if (shape == ShapeCode.SHEET_METAL_FOLDED && part.getBends() != null && part.getBends() > 0) {
                     // Press brake rate: $120/hour, ~10 bends per minute
                     BigDecimal bendCost = new BigDecimal("0.20"); // $0.20 per bend
                     cost = cost.add(bendCost.multiply(BigDecimal.valueOf(part.getBends())));
                 }
                 break;
 
-            case "TUBE_RECTANGULAR":
-            case "TUBE_ROUND":
-            case "BAR_ROUND":
+            case TUBE_RECTANGULAR:
+            case TUBE_ROUND:
+            case BAR_ROUND:
                 // Sawing cost based on cross-section
                 BigDecimal sawingCost = new BigDecimal("2.00"); // Base sawing cost
                 cost = cost.add(sawingCost);
                 break;
+            default:
+                break;
         }
 
         return cost.setScale(2, RoundingMode.HALF_UP);
@@ -643,29 +645,6 @@ public class QuotingEngine implements Serializable {
         return nodeTotalCost;
     }
 
-    /**
-     * Check if a shape is quotable (not UNKNOWN or UNRECOGNIZED).
-     */
-    private boolean isQuotableShape(String shapeKey) {
-        if (shapeKey == null) {
-            return false;
-        }
-        switch (shapeKey) {
-            case "SHEET_METAL_FLAT":
-            case "SHEET_METAL_FOLDED":
-            case "TUBE_RECTANGULAR":
-            case "TUBE_ROUND":
-            case "BENT_TUBE_RECTANGULAR":
-            case "BENT_TUBE_ROUND":
-            case "BAR_ROUND":
-            case "BAR_RECTANGULAR":
-                return true;
-            default:
-                // UNKNOWN, UNRECOGNIZED, etc. are not quotable
-                return false;
-        }
-    }
-
     // Getters
 
     public BigDecimal getTotalMaterialCost() {
@@ -751,32 +730,6 @@ public class QuotingEngine implements Serializable {
         return dimDiff.add(thicknessDiff);
     }
 
-    /**
-     * Get the appropriate shape key for raw materials based on part shape.
-     */
-    private String getMaterialShapeKey(String partShapeKey) {
-        if (partShapeKey == null) return null;
-
-        switch (partShapeKey) {
-            case "SHEET_METAL_FLAT":
-            case "SHEET_METAL_FOLDED":
-                // Sheet metal parts use flat sheet materials
-                return "SHEET_METAL_FLAT";
-            case "TUBE_RECTANGULAR":
-            case "BENT_TUBE_RECTANGULAR":
-                return "TUBE_RECTANGULAR";
-            case "TUBE_ROUND":
-            case "BENT_TUBE_ROUND":
-                return "TUBE_ROUND";
-            case "BAR_ROUND":
-                return "BAR_ROUND";
-            case "BAR_RECTANGULAR":
-                return "BAR_RECTANGULAR";
-            default:
-                return partShapeKey;
-        }
-    }
-
     /**
      * Change the alloy for a part and find the best matching material.
      * Called when user selects a new alloy from the dropdown.
@@ -827,23 +780,19 @@ public class QuotingEngine implements Serializable {
      * Find materials matching the part's shape, dimensions, and the specified alloy.
      */
     private List<Product> findMaterialsForAlloy(Part part, Category alloy) {
-        if (part == null || part.getShape() == null || alloy == null) {
+        ShapeCode shape = ShapeCode.of(part);
+        if (shape == null || alloy == null) {
             return new ArrayList<>();
         }
 
-        String shapeKey = part.getShape().getKey();
-
-        switch (shapeKey) {
-            case "SHEET_METAL_FLAT":
-            case "SHEET_METAL_FOLDED":
+        switch (shape.getMaterialShape()) {
+            case SHEET_METAL_FLAT:
                 return findSheetMetalMaterialsForAlloy(part, alloy);
-            case "TUBE_RECTANGULAR":
-            case "BENT_TUBE_RECTANGULAR":
+            case TUBE_RECTANGULAR:
                 return findRectangularTubeMaterialsForAlloy(part, alloy);
-            case "TUBE_ROUND":
-            case "BENT_TUBE_ROUND":
+            case TUBE_ROUND:
                 return findRoundTubeMaterialsForAlloy(part, alloy);
-            case "BAR_ROUND":
+            case BAR_ROUND:
                 return findRoundBarMaterialsForAlloy(part, alloy);
             default:
                 return new ArrayList<>();
@@ -0,0 +1,54 @@
+package com.materiam.controllers;
+
+import jakarta.enterprise.context.RequestScoped;
+import jakarta.faces.context.FacesContext;
+import jakarta.faces.event.PhaseId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Results of expensive getters for the page being rendered. EL calls a
+ * getter such as {@code projectController.bomItems} several times while a
+ * page renders, and each call would otherwise redo the work.
+ *
+ * Values are kept only during the render response phase. The phases before
+ * it decode input and run actions that change the data, so their calls are
+ * always computed fresh, and the render sees the data as the actions left
+ * it. Code that changes the data while rendering calls {@link #invalidate()}.
+ *
+ * @author mufufu
+ */
+@RequestScoped
+public class RenderMemo {
+
+    private final Map<String, Object> values = new HashMap<>();
+
+    /**
+     * @return the value stored under {@code key} for this render, computing
+     *         it with {@code compute} the first time
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> compute) {
+        if (!isRendering()) {
+            values.clear();
+            return compute.get();
+        }
+        if (values.containsKey(key)) {
+            return (T) values.get(key);
+        }
+        // Not computeIfAbsent: computing one value may look up another
+        T value = compute.get();
+        values.put(key, value);
+        return value;
+    }
+
+    public void invalidate() {
+        values.clear();
+    }
+
+    private static boolean isRendering() {
+        FacesContext context = FacesContext.getCurrentInstance();
+        return context != null && context.getCurrentPhaseId() == PhaseId.RENDER_RESPONSE;
+    }
+}
@@ -259,6 +259,15 @@ public class UserController implements Serializable {
         }
     }
     
+    /**
+     * @return a snapshot of the websocket ids registered by this session
+     */
+    public Set<String> getWsids() {
+        synchronized (wsids) {
+            return new HashSet<>(wsids);
+        }
+    }
+
     public void sendUpdate(String msg) {
         synchronized (consoleMessages) {
             consoleMessages.addLast(msg);
@@ -9,9 +9,12 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,6 +24,7 @@ import java.util.List;
  * @author mufufu
  */
 @Entity
+@Table(indexes = @Index(columnList = "cadfileId"))
 public class Assembly implements Serializable {
 
     /**
@@ -57,11 +61,17 @@ public class Assembly implements Serializable {
 
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "assembly_seq")
+    @SequenceGenerator(name = "assembly_seq", sequenceName = "ASSEMBLY_SEQ", allocationSize = 500)
     private Long id;
     
     private String persid;
     private String name;
+    // Plain column so all assemblies of a CADFile load in one query
+    private Long cadfileId;
+    // Parts and assemblies below this one, counted at import
+    private Integer subtreePartCount;
+    private Integer subtreeAssemblyCount;
 
     @ManyToOne
     private Assembly parent;  // Add parent reference for bidirectional relationship
@@ -167,5 +177,49 @@ public class Assembly implements Serializable {
     public void setName(String name) {
         this.name = name;
     }
-    
+
+    /**
+     * @return the id of the CADFile the assembly was imported from; null
+     *         for assemblies imported before the column existed
+     */
+    public Long getCadfileId() {
+        return cadfileId;
+    }
+
+    /**
+     * @param cadfileId the cadfileId to set
+     */
+    public void setCadfileId(Long cadfileId) {
+        this.cadfileId = cadfileId;
+    }
+
+    /**
+     * @return the number of parts in the subtree of this assembly; null
+     *         for assemblies imported before the hierarchy was indexed
+     */
+    public Integer getSubtreePartCount() {
+        return subtreePartCount;
+    }
+
+    /**
+     * @param subtreePartCount the subtreePartCount to set
+     */
+    public void setSubtreePartCount(Integer subtreePartCount) {
+        this.subtreePartCount = subtreePartCount;
+    }
+
+    /**
+     * @return the number of assemblies below this one, itself excluded
+     */
+    public Integer getSubtreeAssemblyCount() {
+        return subtreeAssemblyCount;
+    }
+
+    /**
+     * @param subtreeAssemblyCount the subtreeAssemblyCount to set
+     */
+    public void setSubtreeAssemblyCount(Integer subtreeAssemblyCount) {
+        this.subtreeAssemblyCount = subtreeAssemblyCount;
+    }
+
 }
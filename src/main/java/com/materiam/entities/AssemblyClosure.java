@@ -0,0 +1,116 @@
+package com.materiam.entities;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import java.io.Serializable;
+
+/**
+ * One ancestor and descendant pair of the assembly tree of a CADFile,
+ * written at import for every assembly and each of its ancestors,
+ * including itself at depth 0. The subtree of an assembly is then one
+ * indexed lookup by ancestorId instead of a walk over the lazy
+ * {@link Assembly#getAssemblies()} collections.
+ *
+ * @author mufufu
+ */
+@Entity
+@Table(indexes = {
+    @Index(columnList = "ancestorId"),
+    @Index(columnList = "descendantId"),
+    @Index(columnList = "cadfileId")
+})
+public class AssemblyClosure implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "assembly_closure_seq")
+    @SequenceGenerator(name = "assembly_closure_seq", sequenceName = "ASSEMBLY_CLOSURE_SEQ", allocationSize = 500)
+    private Long id;
+    private Long ancestorId;
+    private Long descendantId;
+    private int depth;
+    private Long cadfileId;
+
+    public AssemblyClosure() {
+    }
+
+    public AssemblyClosure(Long ancestorId, Long descendantId, int depth, Long cadfileId) {
+        this.ancestorId = ancestorId;
+        this.descendantId = descendantId;
+        this.depth = depth;
+        this.cadfileId = cadfileId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getAncestorId() {
+        return ancestorId;
+    }
+
+    public void setAncestorId(Long ancestorId) {
+        this.ancestorId = ancestorId;
+    }
+
+    public Long getDescendantId() {
+        return descendantId;
+    }
+
+    public void setDescendantId(Long descendantId) {
+        this.descendantId = descendantId;
+    }
+
+    /**
+     * @return the number of levels between ancestor and descendant, 0 for
+     *         the row of an assembly with itself
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public Long getCadfileId() {
+        return cadfileId;
+    }
+
+    public void setCadfileId(Long cadfileId) {
+        this.cadfileId = cadfileId;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        hash += (id != null ? id.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof AssemblyClosure)) {
+            return false;
+        }
+        AssemblyClosure other = (AssemblyClosure) object;
+        if ((this.id == null && other.id != null) || (this.id != null && !this.id.equals(other.id))) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "com.materiam.entities.AssemblyClosure[ id=" + id + " ]";
+    }
+}
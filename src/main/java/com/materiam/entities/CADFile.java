@@ -5,12 +5,15 @@
 package com.materiam.entities;
 
 import jakarta.persistence.CascadeType;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.Table;
 import java.io.Serializable;
 import java.util.Set;
 import java.util.List;
@@ -20,6 +23,7 @@ import java.util.List;
  * @author mufufu
  */
 @Entity
+@Table(indexes = @Index(columnList = "contentHash"))
 public class CADFile implements Serializable {
 
     /**
@@ -43,6 +47,14 @@ public class CADFile implements Serializable {
     private Long id;
     private String name;
     private String uuid;
+    // SHA-256 of the uploaded file, used to reuse earlier conversions
+    @Column(length = 64)
+    private String contentHash;
+    // Id of the CADFile this one is a new revision of; not a relation so
+    // either revision can be deleted on its own
+    private Long previousRevisionId;
+    // A newer revision was imported, the tree and quotes show that one
+    private Boolean superseded;
     
     //@ManyToOne
     private Project project;
@@ -147,6 +159,46 @@ public class CADFile implements Serializable {
         this.uuid = uuid;
     }
 
+    /**
+     * @return the hex SHA-256 of the uploaded file
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param contentHash the contentHash to set
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return the id of the CADFile this is a revision of, or null
+     */
+    public Long getPreviousRevisionId() {
+        return previousRevisionId;
+    }
+
+    /**
+     * @param previousRevisionId the previousRevisionId to set
+     */
+    public void setPreviousRevisionId(Long previousRevisionId) {
+        this.previousRevisionId = previousRevisionId;
+    }
+
+    /**
+     * @return whether a newer revision of this file was imported
+     */
+    public Boolean getSuperseded() {
+        return superseded;
+    }
+
+    /**
+     * @param superseded the superseded to set
+     */
+    public void setSuperseded(Boolean superseded) {
+        this.superseded = superseded;
+    }
 
-    
 }
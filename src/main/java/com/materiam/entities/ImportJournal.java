@@ -0,0 +1,182 @@
+package com.materiam.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * An import that has not finished yet, with everything needed to start it
+ * again after a crash or redeploy and the last stage it completed. The row
+ * is written in the same transaction as the CADFile and removed once the
+ * import ends, so whatever is left at startup was interrupted.
+ *
+ * @author mufufu
+ */
+@Entity
+public class ImportJournal implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    @Id
+    @Column(length = 36)
+    private String jobId;
+    private Long projectId;
+    private String projectUuid;
+    private Long cadfileId;
+    private String cadfileUuid;
+    @Column(length = 64)
+    private String contentHash;
+    private String fileName;
+    private String directory;
+    private String tenant;
+    private long uploadBytes;
+    @Column(length = 16)
+    private String checkpoint;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updated;
+
+    /**
+     * @return the id of the import job
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * @param jobId the jobId to set
+     */
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public void setProjectId(Long projectId) {
+        this.projectId = projectId;
+    }
+
+    public String getProjectUuid() {
+        return projectUuid;
+    }
+
+    public void setProjectUuid(String projectUuid) {
+        this.projectUuid = projectUuid;
+    }
+
+    public Long getCadfileId() {
+        return cadfileId;
+    }
+
+    public void setCadfileId(Long cadfileId) {
+        this.cadfileId = cadfileId;
+    }
+
+    public String getCadfileUuid() {
+        return cadfileUuid;
+    }
+
+    public void setCadfileUuid(String cadfileUuid) {
+        this.cadfileUuid = cadfileUuid;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return the CADFile directory, ending with a slash
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public long getUploadBytes() {
+        return uploadBytes;
+    }
+
+    public void setUploadBytes(long uploadBytes) {
+        this.uploadBytes = uploadBytes;
+    }
+
+    /**
+     * @return the name of the last completed ImportCheckpoint
+     */
+    public String getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(String checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(Date updated) {
+        this.updated = updated;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        hash += (jobId != null ? jobId.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof ImportJournal)) {
+            return false;
+        }
+        ImportJournal other = (ImportJournal) object;
+        if ((this.jobId == null && other.jobId != null) || (this.jobId != null && !this.jobId.equals(other.jobId))) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "com.materiam.entities.ImportJournal[ jobId=" + jobId + " ]";
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.materiam.entities;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Stage timings of one CAD import. Ids are stored as plain columns so the
+ * record outlives the project it was imported into.
+ *
+ * @author mufufu
+ */
+@Entity
+@Table(indexes = {@Index(columnList = "projectId"), @Index(columnList = "startedAt")})
+public class ImportTimeline implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String jobId;
+    private Long projectId;
+    private Long cadfileId;
+    private String fileName;
+    private String state;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date startedAt;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date finishedAt;
+    private Long uploadBytes;
+    private Long uploadMillis;
+    private Long queueMillis;
+    private Long scanMillis;
+    private Long stepProducts;
+    private Long stepOccurrences;
+    private Long stepguruMillis;
+    private Integer stepguruExitCode;
+    private Boolean conversionReused;
+    private Long parseMillis;
+    private Integer definitionCount;
+    private Integer instanceCount;
+    private Long persistMillis;
+    private Integer persistedRows;
+    private Long simulationMillis;
+    private Integer simulatedParts;
+    @Lob
+    private String simulationTimes;
+    @Lob
+    private String revisionDiff;
+    private Long totalMillis;
+    @Lob
+    private String error;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the id of the import job
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * @param jobId the jobId to set
+     */
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * @return the project id
+     */
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    /**
+     * @param projectId the projectId to set
+     */
+    public void setProjectId(Long projectId) {
+        this.projectId = projectId;
+    }
+
+    /**
+     * @return the CADFile id
+     */
+    public Long getCadfileId() {
+        return cadfileId;
+    }
+
+    /**
+     * @param cadfileId the cadfileId to set
+     */
+    public void setCadfileId(Long cadfileId) {
+        this.cadfileId = cadfileId;
+    }
+
+    /**
+     * @return the uploaded file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @param fileName the fileName to set
+     */
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return the final ImportState of the import
+     */
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @param state the state to set
+     */
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    /**
+     * @return when the import job was created
+     */
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @param startedAt the startedAt to set
+     */
+    public void setStartedAt(Date startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    /**
+     * @return when the import finished or failed
+     */
+    public Date getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * @param finishedAt the finishedAt to set
+     */
+    public void setFinishedAt(Date finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    /**
+     * @return the size of the uploaded file
+     */
+    public Long getUploadBytes() {
+        return uploadBytes;
+    }
+
+    /**
+     * @param uploadBytes the uploadBytes to set
+     */
+    public void setUploadBytes(Long uploadBytes) {
+        this.uploadBytes = uploadBytes;
+    }
+
+    /**
+     * @return the time taken to receive the file
+     */
+    public Long getUploadMillis() {
+        return uploadMillis;
+    }
+
+    /**
+     * @param uploadMillis the uploadMillis to set
+     */
+    public void setUploadMillis(Long uploadMillis) {
+        this.uploadMillis = uploadMillis;
+    }
+
+    /**
+     * @return the time spent waiting for an import worker
+     */
+    public Long getQueueMillis() {
+        return queueMillis;
+    }
+
+    /**
+     * @param queueMillis the queueMillis to set
+     */
+    public void setQueueMillis(Long queueMillis) {
+        this.queueMillis = queueMillis;
+    }
+
+    /**
+     * @return the stepguru wall time
+     */
+    public Long getStepguruMillis() {
+        return stepguruMillis;
+    }
+
+    /**
+     * @param stepguruMillis the stepguruMillis to set
+     */
+    public void setStepguruMillis(Long stepguruMillis) {
+        this.stepguruMillis = stepguruMillis;
+    }
+
+    /**
+     * @return the stepguru exit code, null if the conversion was reused
+     */
+    public Integer getStepguruExitCode() {
+        return stepguruExitCode;
+    }
+
+    /**
+     * @param stepguruExitCode the stepguruExitCode to set
+     */
+    public void setStepguruExitCode(Integer stepguruExitCode) {
+        this.stepguruExitCode = stepguruExitCode;
+    }
+
+    /**
+     * @return true if the outputs of an identical upload were reused
+     */
+    public Boolean getConversionReused() {
+        return conversionReused;
+    }
+
+    /**
+     * @param conversionReused the conversionReused to set
+     */
+    public void setConversionReused(Boolean conversionReused) {
+        this.conversionReused = conversionReused;
+    }
+
+    /**
+     * @return the time taken by the STEP pre-scan
+     */
+    public Long getScanMillis() {
+        return scanMillis;
+    }
+
+    /**
+     * @param scanMillis the scanMillis to set
+     */
+    public void setScanMillis(Long scanMillis) {
+        this.scanMillis = scanMillis;
+    }
+
+    /**
+     * @return the PRODUCT entities counted by the pre-scan, to compare
+     *         with the definitionCount
+     */
+    public Long getStepProducts() {
+        return stepProducts;
+    }
+
+    /**
+     * @param stepProducts the stepProducts to set
+     */
+    public void setStepProducts(Long stepProducts) {
+        this.stepProducts = stepProducts;
+    }
+
+    /**
+     * @return the NEXT_ASSEMBLY_USAGE_OCCURRENCE entities counted by the
+     *         pre-scan, to compare with the instanceCount
+     */
+    public Long getStepOccurrences() {
+        return stepOccurrences;
+    }
+
+    /**
+     * @param stepOccurrences the stepOccurrences to set
+     */
+    public void setStepOccurrences(Long stepOccurrences) {
+        this.stepOccurrences = stepOccurrences;
+    }
+
+    /**
+     * @return the time taken to read assembly.json
+     */
+    public Long getParseMillis() {
+        return parseMillis;
+    }
+
+    /**
+     * @param parseMillis the parseMillis to set
+     */
+    public void setParseMillis(Long parseMillis) {
+        this.parseMillis = parseMillis;
+    }
+
+    /**
+     * @return the number of definitions in assembly.json
+     */
+    public Integer getDefinitionCount() {
+        return definitionCount;
+    }
+
+    /**
+     * @param definitionCount the definitionCount to set
+     */
+    public void setDefinitionCount(Integer definitionCount) {
+        this.definitionCount = definitionCount;
+    }
+
+    /**
+     * @return the number of part instances in assembly.json
+     */
+    public Integer getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * @param instanceCount the instanceCount to set
+     */
+    public void setInstanceCount(Integer instanceCount) {
+        this.instanceCount = instanceCount;
+    }
+
+    /**
+     * @return the time taken to write the assembly tree
+     */
+    public Long getPersistMillis() {
+        return persistMillis;
+    }
+
+    /**
+     * @param persistMillis the persistMillis to set
+     */
+    public void setPersistMillis(Long persistMillis) {
+        this.persistMillis = persistMillis;
+    }
+
+    /**
+     * @return the number of rows written for the assembly tree
+     */
+    public Integer getPersistedRows() {
+        return persistedRows;
+    }
+
+    /**
+     * @param persistedRows the persistedRows to set
+     */
+    public void setPersistedRows(Integer persistedRows) {
+        this.persistedRows = persistedRows;
+    }
+
+    /**
+     * @return the wall time of all amatix runs
+     */
+    public Long getSimulationMillis() {
+        return simulationMillis;
+    }
+
+    /**
+     * @param simulationMillis the simulationMillis to set
+     */
+    public void setSimulationMillis(Long simulationMillis) {
+        this.simulationMillis = simulationMillis;
+    }
+
+    /**
+     * @return the number of folded parts simulated
+     */
+    public Integer getSimulatedParts() {
+        return simulatedParts;
+    }
+
+    /**
+     * @param simulatedParts the simulatedParts to set
+     */
+    public void setSimulatedParts(Integer simulatedParts) {
+        this.simulatedParts = simulatedParts;
+    }
+
+    /**
+     * @return per part amatix times as a JSON array
+     */
+    public String getSimulationTimes() {
+        return simulationTimes;
+    }
+
+    /**
+     * @param simulationTimes the simulationTimes to set
+     */
+    public void setSimulationTimes(String simulationTimes) {
+        this.simulationTimes = simulationTimes;
+    }
+
+    /**
+     * @return for the import of a new revision, what changed against the
+     *         previous one as a JSON object
+     */
+    public String getRevisionDiff() {
+        return revisionDiff;
+    }
+
+    /**
+     * @param revisionDiff the revisionDiff to set
+     */
+    public void setRevisionDiff(String revisionDiff) {
+        this.revisionDiff = revisionDiff;
+    }
+
+    /**
+     * @return the time from job creation to the end of the import
+     */
+    public Long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @param totalMillis the totalMillis to set
+     */
+    public void setTotalMillis(Long totalMillis) {
+        this.totalMillis = totalMillis;
+    }
+
+    /**
+     * @return the error message of a failed import
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @param error the error to set
+     */
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * @return rows written per second while persisting the assembly tree
+     */
+    public Long getRowsPerSecond() {
+        if (persistedRows == null || persistMillis == null) {
+            return null;
+        }
+        return persistMillis > 0 ? persistedRows * 1000L / persistMillis : persistedRows.longValue();
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        hash += (id != null ? id.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof ImportTimeline)) {
+            return false;
+        }
+        ImportTimeline other = (ImportTimeline) object;
+        if ((this.id == null && other.id != null) || (this.id != null && !this.id.equals(other.id))) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "com.materiam.entities.ImportTimeline[ id=" + id + " ]";
+    }
+}
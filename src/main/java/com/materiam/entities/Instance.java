@@ -8,7 +8,10 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
 import java.io.Serializable;
 
 /**
@@ -20,12 +23,14 @@ import java.io.Serializable;
  * @author mufufu
  */
 @Entity
+@Table(indexes = @Index(columnList = "parentAssemblyId"))
 public class Instance implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "instance_seq")
+    @SequenceGenerator(name = "instance_seq", sequenceName = "INSTANCE_SEQ", allocationSize = 500)
     private Long id;
 
     @ManyToOne
@@ -40,6 +45,10 @@ public class Instance implements Serializable {
     // The persid from the assembly.json (e.g., "0-1-2")
     private String persid;
 
+    // Plain column with the assembly the instance was placed in, so the
+    // instances of a subtree are found through AssemblyClosure
+    private Long parentAssemblyId;
+
     // 4x4 transformation matrix in row-major order
     // Row 0: rotation/scale + translation X
     private double m00 = 1.0;
@@ -105,6 +114,19 @@ public class Instance implements Serializable {
         this.persid = persid;
     }
 
+    /**
+     * @return the id of the assembly holding this instance; null for a
+     *         single part CADFile or instances imported before the column
+     *         existed
+     */
+    public Long getParentAssemblyId() {
+        return parentAssemblyId;
+    }
+
+    public void setParentAssemblyId(Long parentAssemblyId) {
+        this.parentAssemblyId = parentAssemblyId;
+    }
+
     /**
      * Set the transformation matrix from a 16-element array (row-major order).
      * @param transform Array of 16 doubles [m00,m01,m02,m03, m10,m11,m12,m13, m20,m21,m22,m23, m30,m31,m32,m33]
@@ -10,8 +10,11 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Lob;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
 import java.io.Serializable;
 import java.math.BigDecimal;
 
@@ -20,6 +23,7 @@ import java.math.BigDecimal;
  * @author mufufu
  */
 @Entity
+@Table(indexes = @Index(columnList = "fingerprint"))
 public class Part implements Serializable {
 
 
@@ -27,7 +31,8 @@ public class Part implements Serializable {
 
     private static final long serialVersionUID = 1L;
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "part_seq")
+    @SequenceGenerator(name = "part_seq", sequenceName = "PART_SEQ", allocationSize = 500)
     private Long id;
     private String name;
     // TODO: Delete this property 
@@ -100,6 +105,9 @@ public class Part implements Serializable {
     private Boolean hasWarnings;    // Part has manufacturing warnings
     @Lob
     private String simulationWarnings;  // JSON array of warning messages
+    private Boolean simulated;          // amatix ran successfully for this part (or its result came from the cache)
+    @Column(length = 64)
+    private String fingerprint;         // same for identical parts in any project
     
     
     public Long getId() {
@@ -493,6 +501,22 @@ public class Part implements Serializable {
         this.hasWarnings = hasWarnings;
     }
 
+    /**
+     * @return true once amatix ran successfully for the part or its result
+     *         came from the cache; parts where this is not set, including
+     *         failed ones, are simulated again
+     */
+    public Boolean getSimulated() {
+        return simulated;
+    }
+
+    /**
+     * @param simulated the simulated to set
+     */
+    public void setSimulated(Boolean simulated) {
+        this.simulated = simulated;
+    }
+
     /**
      * @return the simulation warnings as JSON array string
      */
@@ -506,4 +530,19 @@ public class Part implements Serializable {
     public void setSimulationWarnings(String simulationWarnings) {
         this.simulationWarnings = simulationWarnings;
     }
+
+    /**
+     * @return the PartFingerprint, which identifies the part's files in
+     *         the part store; null if stepguru wrote no STEP file for it
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @param fingerprint the fingerprint to set
+     */
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
 }
@@ -0,0 +1,498 @@
+package com.materiam.imports;
+
+import com.materiam.entities.Assembly;
+import com.materiam.entities.CADFile;
+import com.materiam.entities.ImportTimeline;
+import com.materiam.entities.Instance;
+import com.materiam.entities.Part;
+import com.materiam.shapes.ShapeCode;
+import com.materiam.shapes.ShapeRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.JsonObject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Transactional part of the import pipeline: turns assembly.json into
+ * Part, Assembly and Instance entities and stores amatix results on parts.
+ * Kept apart from {@link ImportService} so that every call goes through the
+ * CDI proxy and gets its own transaction on the import worker thread.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+@Transactional
+public class AssemblyImporter {
+
+    // Matches eclipselink.jdbc.batch-writing.size in persistence.xml
+    private static final int BATCH_SIZE = 500;
+
+    // Largest collection size taken from a STEP pre-scan
+    private static final int PRESIZE_LIMIT = 1 << 20;
+
+    @PersistenceContext(unitName = "materiam")
+    private EntityManager em;
+
+    @Inject
+    private ShapeRegistry shapeRegistry;
+
+    @Inject
+    private ImportJournalService journal;
+
+    @Inject
+    private PartStore partStore;
+
+    /**
+     * Streams assembly.json and creates the entities it describes as
+     * definitions and instances go by, attaching them to the CADFile.
+     *
+     * @param onParsed called once the whole file has been read, before the
+     *                 entities are written
+     * @return the parts of the CADFile, detached once the transaction commits
+     */
+    public List<Part> persistAssembly(ImportJob job, Path assemblyJson, Runnable onParsed) throws IOException {
+        CADFile f = em.find(CADFile.class, job.getCadfileId());
+        ImportTimeline timeline = job.getTimeline();
+
+        System.out.println("=== Streaming assembly.json ===");
+        long parseStart = System.currentTimeMillis();
+        EntityBuilder builder = new EntityBuilder(f, job.getStepScan());
+        new AssemblyJsonParser().parse(assemblyJson, builder);
+        timeline.setParseMillis(System.currentTimeMillis() - parseStart);
+        timeline.setDefinitionCount(builder.definitionsEntityMap.size());
+        timeline.setInstanceCount(builder.instanceCount);
+        System.out.println("Read " + builder.definitionsEntityMap.size() + " definitions and "
+                + builder.instanceCount + " part instances");
+        onParsed.run();
+
+        Path directory = Paths.get(job.getDirectory());
+        for (Part part : f.getParts()) {
+            part.setFingerprint(partStore.fingerprint(directory, part));
+        }
+
+        // Persist the definitions via cascade, then the instances in batches
+        System.out.println("\n=== Persisting to Database ===");
+        long start = System.currentTimeMillis();
+        Assembly rootAssembly = builder.rootAssembly;
+        f.setRoot(rootAssembly);
+        if (rootAssembly != null) {
+            em.persist(rootAssembly);  // Cascades to child assemblies and their parts
+        }
+        em.flush();
+        if (f.getPreviousRevisionId() != null) {
+            RevisionDiff diff = carryOver(f, directory);
+            if (diff != null) {
+                job.setRevisionDiff(diff);
+                timeline.setRevisionDiff(diff.toJson());
+                System.out.println(diff);
+            }
+        }
+        int rows = f.getParts().size();
+        for (Object entity : builder.definitionsEntityMap.values()) {
+            if (entity instanceof Assembly && ((Assembly) entity).getId() != null) {
+                rows++;
+            }
+        }
+        if (rootAssembly != null) {
+            rows += AssemblyIndex.build(em, f.getId());
+        }
+        for (int i = 0; i < builder.instances.size(); i++) {
+            Assembly parent = builder.instanceAssemblies.get(i);
+            builder.instances.get(i).setParentAssemblyId(parent != null ? parent.getId() : null);
+        }
+        rows += persistInstances(builder.instances);
+        long millis = System.currentTimeMillis() - start;
+        timeline.setPersistedRows(rows);
+        timeline.setPersistMillis(millis);
+        System.out.println("Successfully persisted CADFile and assembly tree: " + rows + " rows in "
+                + millis + " ms (" + timeline.getRowsPerSecond() + " rows/s)");
+
+        // Commits with the rows, so a restart never persists the assembly twice
+        journal.checkpoint(job, ImportCheckpoint.PERSISTED);
+
+        if (!f.getParts().isEmpty()) {
+            job.setPreviewPersid(f.getParts().iterator().next().getPersid());
+        } else if (rootAssembly != null) {
+            job.setPreviewPersid(rootAssembly.getPersid());
+        }
+        return new ArrayList<>(f.getParts());
+    }
+
+    /**
+     * Matches the parts of a new revision with those of the previous one,
+     * see {@link RevisionDiff}, and copies the material, manual price,
+     * comments and amatix results of every unchanged part, so amatix only
+     * runs for new and changed parts. The previous revision is marked as
+     * superseded in the same transaction.
+     *
+     * @param directory the directory of the new revision
+     * @return the diff, or null if the previous revision has been deleted
+     */
+    private RevisionDiff carryOver(CADFile f, Path directory) {
+        CADFile previous = em.find(CADFile.class, f.getPreviousRevisionId());
+        if (previous == null) {
+            System.out.println("Previous revision of " + f.getName() + " no longer exists, importing it as new");
+            return null;
+        }
+        Path previousDirectory = directory.getParent().resolve(previous.getUuid());
+        RevisionDiff diff = new RevisionDiff(previous.getName());
+
+        List<Part> previousParts = em.createQuery("select p from Part p where p.cadfile.id = :cadfileId", Part.class)
+                .setParameter("cadfileId", previous.getId())
+                .getResultList();
+        Map<String, Part> byPersid = new HashMap<>();
+        Map<String, Deque<Part>> bySignature = new HashMap<>();
+        for (Part old : previousParts) {
+            byPersid.put(old.getPersid(), old);
+            bySignature.computeIfAbsent(PartSignature.of(old), k -> new ArrayDeque<>()).add(old);
+        }
+
+        Set<Part> matched = new HashSet<>();
+        List<Part> unmatched = new ArrayList<>();
+        for (Part part : f.getParts()) {
+            Part old = byPersid.get(part.getPersid());
+            if (old == null) {
+                unmatched.add(part);
+            } else if (PartSignature.of(old).equals(PartSignature.of(part))) {
+                matched.add(old);
+                copyPart(old, previousDirectory, part, directory);
+                diff.getUnchanged().add(part.getName());
+            } else {
+                matched.add(old);
+                part.setComments(old.getComments());
+                diff.getChanged().add(part.getName());
+            }
+        }
+        // Parts whose persid changed are found by their geometry
+        for (Part part : unmatched) {
+            Deque<Part> candidates = bySignature.get(PartSignature.of(part));
+            Part old = null;
+            while (old == null && candidates != null && !candidates.isEmpty()) {
+                Part candidate = candidates.poll();
+                if (!matched.contains(candidate)) {
+                    old = candidate;
+                }
+            }
+            if (old != null) {
+                matched.add(old);
+                copyPart(old, previousDirectory, part, directory);
+                diff.getUnchanged().add(part.getName());
+            } else {
+                diff.getAdded().add(part.getName());
+            }
+        }
+        for (Part old : previousParts) {
+            if (!matched.contains(old)) {
+                diff.getRemoved().add(old.getName());
+            }
+        }
+
+        previous.setSuperseded(true);
+        return diff;
+    }
+
+    private void copyPart(Part old, Path oldDirectory, Part part, Path directory) {
+        part.setMaterial(old.getMaterial());
+        part.setManualPrice(old.getManualPrice());
+        part.setComments(old.getComments());
+        if (!Boolean.TRUE.equals(old.getSimulated())) {
+            return;
+        }
+        Path source = oldDirectory.resolve(old.getPersid() + SimulationRunner.SIMULATION_DIR_SUFFIX);
+        Path target = directory.resolve(part.getPersid() + SimulationRunner.SIMULATION_DIR_SUFFIX);
+        if (!Files.isDirectory(source)) {
+            // Nothing to show for it, let amatix run again
+            return;
+        }
+        try {
+            SimulationCache.linkTree(source, target);
+        } catch (IOException e) {
+            System.err.println("Could not copy " + source + ": " + e.getMessage());
+            SimulationCache.deleteTree(target);
+            return;
+        }
+        part.setSimulated(true);
+        part.setHasCollisions(old.getHasCollisions());
+        part.setHasWarnings(old.getHasWarnings());
+        part.setSimulationWarnings(old.getSimulationWarnings());
+    }
+
+    /**
+     * Inserts the instances {@link #BATCH_SIZE} at a time. The persistence
+     * context is cleared after every chunk so it does not grow with the
+     * assembly; the parts and the CADFile referenced by the remaining
+     * instances are swapped for references valid in the cleared context.
+     *
+     * @return the number of instances written
+     */
+    private int persistInstances(List<Instance> instances) {
+        Map<Long, Part> parts = new HashMap<>();
+        CADFile cadFile = null;
+        int count = 0;
+        for (Instance inst : instances) {
+            if (count > 0 && count % BATCH_SIZE == 0) {
+                em.flush();
+                em.clear();
+                parts.clear();
+                cadFile = null;
+            }
+            if (count >= BATCH_SIZE) {
+                Long partId = inst.getPart().getId();
+                inst.setPart(parts.computeIfAbsent(partId, id -> em.getReference(Part.class, id)));
+                if (cadFile == null) {
+                    cadFile = em.getReference(CADFile.class, inst.getCadfile().getId());
+                }
+                inst.setCadfile(cadFile);
+            }
+            em.persist(inst);
+            count++;
+        }
+        em.flush();
+        return count;
+    }
+
+    /**
+     * Stores the amatix result of one part as soon as it is known and marks
+     * the part as simulated, so an interrupted import does not run amatix
+     * for it again. Failed, timed out and skipped runs leave the part
+     * unsimulated, so a resumed import tries it again.
+     */
+    public void saveSimulationResult(SimulationResult result) {
+        Part part = em.find(Part.class, result.getPartId());
+        if (part == null || !result.isSuccessful()) {
+            return;
+        }
+        part.setSimulated(true);
+        if (result.isParsed()) {
+            part.setHasWarnings(result.isHasWarnings());
+            if (result.isHasWarnings()) {
+                part.setSimulationWarnings(result.getSimulationWarnings());
+            }
+            part.setHasCollisions(result.isHasCollisions());
+        }
+    }
+
+    /**
+     * @return the parts of a CADFile that amatix has not run for yet
+     */
+    public List<Part> findUnsimulatedParts(Long cadfileId) {
+        return em.createQuery("select p from Part p where p.cadfile.id = :cadfileId"
+                + " and (p.simulated is null or p.simulated = false)", Part.class)
+                .setParameter("cadfileId", cadfileId)
+                .getResultList();
+    }
+
+    /**
+     * Creates the Part or Assembly for one entry of the definitions array.
+     */
+    private void createDefinition(JsonObject d, CADFile f, Map<String, Object> definitionsEntityMap) {
+        String persid    = d.getString("id");
+        String name      = d.getString("name");
+        String shapeType = d.getString("shapeType");
+
+        if (shapeType.equals("COMPOUND")) {
+            System.out.println("Creating assembly in memory: " + name);
+            Assembly assembly = new Assembly();
+            assembly.setPersid(persid);
+            assembly.setName(name);
+            assembly.setCadfileId(f.getId());
+            assembly.setAssemblies(new ArrayList<>());
+            assembly.setParts(new ArrayList<>());
+            definitionsEntityMap.put(persid, assembly);
+        }
+
+        if (shapeType.equals("SOLID")) {
+            System.out.println("Creating part in memory: " + name);
+            Part p = new Part();
+            p.setPersid(persid);
+            p.setName(name);
+            p.setCadfile(f);
+
+            String partType = d.getString("partType");
+            System.out.println("Found partType: "+partType);
+            ShapeCode code = ShapeCode.fromPartType(partType);
+            p.setShape(shapeRegistry.getCategory(code));
+            if (code != null) {
+                readMetrics(d, code, p);
+            }
+            definitionsEntityMap.put(persid, p);
+        }
+    }
+
+    /**
+     * Copies the metrics stepguru reports for a shape onto the part.
+     */
+    private void readMetrics(JsonObject d, ShapeCode code, Part p) {
+        switch (code) {
+            case BENT_TUBE_RECTANGULAR:
+            case TUBE_RECTANGULAR:
+                p.setSectionWidth(d.getJsonNumber("width").bigDecimalValue());
+                p.setSectionHeight(d.getJsonNumber("height").bigDecimalValue());
+                p.setPartLength(d.getJsonNumber("length").bigDecimalValue());
+                p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
+                p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
+                p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
+                break;
+            case BENT_TUBE_ROUND:
+            case TUBE_ROUND:
+                p.setDiameter(d.getJsonNumber("diameter").bigDecimalValue());
+                p.setPartLength(d.getJsonNumber("length").bigDecimalValue());
+                p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
+                p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
+                p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
+                break;
+            case SHEET_METAL_FOLDED:
+                p.setBends(d.getJsonNumber("numBends").longValue());
+                // fall through, folded parts also have the flat pattern metrics
+            case SHEET_METAL_FLAT:
+                p.setThickness(d.getJsonNumber("thickness").bigDecimalValue());
+                p.setFlatTotalContourLength(d.getJsonNumber("cutLength").bigDecimalValue());
+                p.setTotalArea(d.getJsonNumber("surfaceArea").bigDecimalValue());
+                p.setVolume(d.getJsonNumber("volume").bigDecimalValue());
+                p.setFlatObbWidth(d.getJsonNumber("flatPatternWidth").bigDecimalValue());
+                p.setFlatObbLength(d.getJsonNumber("flatPatternLength").bigDecimalValue());
+                break;
+            default:
+                // UNRECOGNIZED parts carry no metrics
+                break;
+        }
+    }
+
+    /**
+     * Keeps a wrong estimate from allocating much more than the importer
+     * would need anyway.
+     */
+    private static int presize(long estimate) {
+        return (int) Math.max(16, Math.min(estimate, PRESIZE_LIMIT));
+    }
+
+    /**
+     * Builds the entity graph from the parser callbacks. Keeps a stack with
+     * the entity of every open instance so children can be attached to their
+     * parent assembly.
+     */
+    private class EntityBuilder implements AssemblyJsonParser.Handler {
+
+        private final CADFile cadFile;
+        private final Map<String, Object> definitionsEntityMap;
+        private final Deque<Optional<Object>> open = new ArrayDeque<>();
+        private final List<Instance> instances;
+        // The assembly each instance was placed in, by position in instances
+        private final List<Assembly> instanceAssemblies;
+        private Assembly rootAssembly;
+        private int instanceCount;
+
+        /**
+         * @param scan sizes the collections up front when known, so large
+         *             assemblies do not rehash and copy them while parsing
+         */
+        EntityBuilder(CADFile cadFile, StepScan scan) {
+            this.cadFile = cadFile;
+            int definitions = scan != null ? presize(scan.getProducts()) : 16;
+            int occurrences = scan != null ? presize(scan.getOccurrences()) : 16;
+            this.definitionsEntityMap = new HashMap<>(definitions * 4 / 3 + 1);
+            this.instances = new ArrayList<>(occurrences);
+            this.instanceAssemblies = new ArrayList<>(occurrences);
+        }
+
+        @Override
+        public void definition(JsonObject definition) {
+            createDefinition(definition, cadFile, definitionsEntityMap);
+        }
+
+        @Override
+        public void startInstance(AssemblyJsonParser.InstanceNode node) {
+            Object entity = definitionsEntityMap.get(node.getDefinitionId());
+
+            if (node.getDepth() == 0) {
+                if (entity == null) {
+                    System.out.println("Warning: No entity found for definitionId: " + node.getDefinitionId());
+                } else if (entity instanceof Assembly) {
+                    rootAssembly = (Assembly) entity;
+                } else if (entity instanceof Part) {
+                    // Handle case where root is a single Part (not an Assembly)
+                    Part part = (Part) entity;
+                    cadFile.getParts().add(part);
+                    System.out.println("Added single part to CADFile: " + part.getName());
+                    instances.add(createInstance(node, part, null, cadFile));
+                    instanceAssemblies.add(null);
+                    instanceCount++;
+                }
+                open.push(Optional.ofNullable(entity));
+                return;
+            }
+
+            // Only children of assemblies are attached, anything under an unknown
+            // definition or a part is skipped together with its subtree
+            Object parentEntity = open.peek().orElse(null);
+            if (!(parentEntity instanceof Assembly)) {
+                open.push(Optional.empty());
+                return;
+            }
+            Assembly assembly = (Assembly) parentEntity;
+
+            if (entity instanceof Assembly) {
+                Assembly childAssembly = (Assembly) entity;
+                childAssembly.setParent(assembly);  // Set parent reference
+                assembly.getAssemblies().add(childAssembly);
+            } else if (entity instanceof Part) {
+                Part childPart = (Part) entity;
+                assembly.getParts().add(childPart);
+                cadFile.getParts().add(childPart);  // Also add to CADFile's flat list
+
+                // Create Instance entity with transformation, written in batches later
+                instances.add(createInstance(node, childPart, null, cadFile));
+                instanceAssemblies.add(assembly);
+                instanceCount++;
+            }
+            open.push(Optional.ofNullable(entity));
+        }
+
+        @Override
+        public void endInstance(AssemblyJsonParser.InstanceNode node) {
+            Object entity = open.pop().orElse(null);
+            if (entity instanceof Assembly && node.isHasChildren()) {
+                Assembly assembly = (Assembly) entity;
+                System.out.println("Built assembly: " + assembly.getName() +
+                                  " [" + assembly.getAssemblies().size() + " sub-assemblies, " +
+                                  assembly.getParts().size() + " parts]");
+            }
+        }
+    }
+
+    /**
+     * Create an Instance entity from an assembly.json instance node.
+     * Copies the transformation matrix if present.
+     */
+    private Instance createInstance(AssemblyJsonParser.InstanceNode node, Part part, Assembly assembly, CADFile cadFile) {
+        Instance inst = new Instance();
+        inst.setCadfile(cadFile);
+        inst.setPart(part);
+        inst.setAssembly(assembly);
+
+        // Get the instance persid from JSON
+        inst.setPersid(node.getId());
+
+        // Extract transformation matrix if present
+        if (node.getTransform() != null) {
+            inst.setTransformFromArray(node.getTransform());
+        }
+
+        return inst;
+    }
+}
@@ -0,0 +1,211 @@
+package com.materiam.imports;
+
+import com.materiam.entities.Assembly;
+import com.materiam.entities.AssemblyClosure;
+import com.materiam.entities.Instance;
+import com.materiam.entities.Part;
+import jakarta.persistence.EntityManager;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the assembly hierarchy of a CADFile: an {@link AssemblyClosure}
+ * row for every assembly and each of its ancestors, and the part and
+ * assembly counts of every subtree on the {@link Assembly} itself. Subtree
+ * fetches and counts for the welding module and for deletes are then one
+ * indexed query instead of a walk over lazy collections.
+ *
+ * The index is written at import. Assemblies imported before it existed
+ * have no counts, {@link #isIndexed(Assembly)} tells callers to fall back
+ * to walking the tree.
+ *
+ * @author mufufu
+ */
+public final class AssemblyIndex {
+
+    private static final int BATCH_SIZE = 500;
+    // Keeps IN lists within what databases accept
+    private static final int IN_LIMIT = 1000;
+
+    private static final String SUBTREE = "(select c.descendantId from AssemblyClosure c where c.ancestorId = :id)";
+
+    private AssemblyIndex() {
+    }
+
+    /**
+     * Writes the index of the assemblies of a CADFile, which must be
+     * flushed already. Reads the hierarchy back with two queries so the
+     * index matches what later loads of the tree see.
+     *
+     * @return the number of closure rows written
+     */
+    public static int build(EntityManager em, Long cadfileId) {
+        List<Object[]> rows = em.createQuery(
+                "select a.id, p.id from Assembly a left join a.parent p where a.cadfileId = :cadfileId order by a.id",
+                Object[].class)
+                .setParameter("cadfileId", cadfileId)
+                .getResultList();
+        Map<Long, List<Long>> children = new HashMap<>();
+        List<Long> roots = new ArrayList<>();
+        for (Object[] row : rows) {
+            children.putIfAbsent((Long) row[0], new ArrayList<>());
+        }
+        for (Object[] row : rows) {
+            Long parentId = (Long) row[1];
+            if (parentId != null && children.containsKey(parentId)) {
+                children.get(parentId).add((Long) row[0]);
+            } else {
+                roots.add((Long) row[0]);
+            }
+        }
+
+        Map<Long, Integer> partCount = new HashMap<>();
+        for (Object[] row : em.createQuery(
+                "select a.id, count(p) from Assembly a join a.parts p where a.cadfileId = :cadfileId group by a.id",
+                Object[].class)
+                .setParameter("cadfileId", cadfileId)
+                .getResultList()) {
+            partCount.put((Long) row[0], ((Number) row[1]).intValue());
+        }
+
+        // Parents before children, with the path from the root to each assembly
+        List<Long> order = new ArrayList<>(rows.size());
+        Map<Long, List<Long>> paths = new HashMap<>();
+        Deque<Long> queue = new ArrayDeque<>(roots);
+        for (Long root : roots) {
+            paths.put(root, Collections.singletonList(root));
+        }
+        int written = 0;
+        while (!queue.isEmpty()) {
+            Long id = queue.poll();
+            order.add(id);
+            List<Long> path = paths.remove(id);
+            for (int i = 0; i < path.size(); i++) {
+                em.persist(new AssemblyClosure(path.get(i), id, path.size() - 1 - i, cadfileId));
+                if (++written % BATCH_SIZE == 0) {
+                    em.flush();
+                }
+            }
+            for (Long child : children.get(id)) {
+                List<Long> childPath = new ArrayList<>(path.size() + 1);
+                childPath.addAll(path);
+                childPath.add(child);
+                paths.put(child, childPath);
+                queue.add(child);
+            }
+        }
+
+        // Children before parents, so every subtree is complete when added up
+        Map<Long, Integer> assemblyCount = new HashMap<>();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Long id = order.get(i);
+            int parts = partCount.getOrDefault(id, 0);
+            int assemblies = 0;
+            for (Long child : children.get(id)) {
+                parts += partCount.get(child);
+                assemblies += assemblyCount.get(child) + 1;
+            }
+            partCount.put(id, parts);
+            assemblyCount.put(id, assemblies);
+            Assembly assembly = em.find(Assembly.class, id);
+            assembly.setSubtreePartCount(parts);
+            assembly.setSubtreeAssemblyCount(assemblies);
+        }
+        em.flush();
+        return written;
+    }
+
+    /**
+     * @return true if the subtree of {@code assembly} can be read from the index
+     */
+    public static boolean isIndexed(Assembly assembly) {
+        return assembly.getSubtreePartCount() != null && assembly.getSubtreeAssemblyCount() != null;
+    }
+
+    /**
+     * @return {@code assembly} and every assembly below it
+     */
+    public static List<Assembly> findAssemblies(EntityManager em, Assembly assembly) {
+        return em.createQuery("select a from Assembly a where a.id in " + SUBTREE, Assembly.class)
+                .setParameter("id", assembly.getId())
+                .getResultList();
+    }
+
+    /**
+     * @return the parts of {@code assembly} and every assembly below it
+     */
+    public static List<Part> findParts(EntityManager em, Assembly assembly) {
+        return em.createQuery("select p from Assembly a join a.parts p where a.id in " + SUBTREE, Part.class)
+                .setParameter("id", assembly.getId())
+                .getResultList();
+    }
+
+    /**
+     * @return the part instances placed anywhere in the subtree of {@code assembly}
+     */
+    public static List<Instance> findInstances(EntityManager em, Assembly assembly) {
+        return em.createQuery("select i from Instance i where i.parentAssemblyId in " + SUBTREE, Instance.class)
+                .setParameter("id", assembly.getId())
+                .getResultList();
+    }
+
+    /**
+     * Takes the subtree of {@code assembly} out of the index before it is
+     * deleted, and out of the counts of the assemblies above it.
+     */
+    public static void removeSubtree(EntityManager em, Assembly assembly) {
+        if (!isIndexed(assembly)) {
+            return;
+        }
+        adjustAncestors(em, assembly.getId(), false,
+                -assembly.getSubtreePartCount(), -assembly.getSubtreeAssemblyCount() - 1);
+        List<Long> ids = em.createQuery(
+                "select c.descendantId from AssemblyClosure c where c.ancestorId = :id", Long.class)
+                .setParameter("id", assembly.getId())
+                .getResultList();
+        for (int i = 0; i < ids.size(); i += IN_LIMIT) {
+            em.createQuery("delete from AssemblyClosure c where c.descendantId in :ids")
+                    .setParameter("ids", ids.subList(i, Math.min(ids.size(), i + IN_LIMIT)))
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Takes a part deleted from {@code parent} out of the counts.
+     */
+    public static void removePart(EntityManager em, Assembly parent) {
+        if (isIndexed(parent)) {
+            adjustAncestors(em, parent.getId(), true, -1, 0);
+        }
+    }
+
+    /**
+     * Drops the index of a CADFile that is deleted.
+     */
+    public static void removeCadFile(EntityManager em, Long cadfileId) {
+        em.createQuery("delete from AssemblyClosure c where c.cadfileId = :cadfileId")
+                .setParameter("cadfileId", cadfileId)
+                .executeUpdate();
+    }
+
+    private static void adjustAncestors(EntityManager em, Long id, boolean includeSelf, int parts, int assemblies) {
+        List<Long> ancestors = em.createQuery(
+                "select c.ancestorId from AssemblyClosure c where c.descendantId = :id and c.depth >= :minDepth",
+                Long.class)
+                .setParameter("id", id)
+                .setParameter("minDepth", includeSelf ? 0 : 1)
+                .getResultList();
+        for (Long ancestorId : ancestors) {
+            Assembly ancestor = em.find(Assembly.class, ancestorId);
+            if (ancestor != null && isIndexed(ancestor)) {
+                ancestor.setSubtreePartCount(ancestor.getSubtreePartCount() + parts);
+                ancestor.setSubtreeAssemblyCount(ancestor.getSubtreeAssemblyCount() + assemblies);
+            }
+        }
+    }
+}
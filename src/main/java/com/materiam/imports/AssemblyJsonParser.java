@@ -0,0 +1,218 @@
+package com.materiam.imports;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+import jakarta.json.stream.JsonParsingException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Event-driven reader for the assembly.json written by stepguru. Only one
+ * definition object is materialized at a time and the instance tree under
+ * {@code root} is never built in memory; the handler sees each instance as
+ * the parser walks by it.
+ *
+ * stepguru writes {@code definitions} before {@code root}, and {@code id}
+ * and {@code definitionId} before {@code children} in every instance, which
+ * is what lets the handler resolve instances while streaming.
+ *
+ * @author mufufu
+ */
+public class AssemblyJsonParser {
+
+    /**
+     * Receives the contents of assembly.json in document order.
+     */
+    public interface Handler {
+
+        /**
+         * A single entry of the {@code definitions} array.
+         */
+        void definition(JsonObject definition);
+
+        /**
+         * An instance node, called before any of its children.
+         */
+        void startInstance(InstanceNode node);
+
+        /**
+         * Called after all children of the instance have been reported.
+         */
+        void endInstance(InstanceNode node);
+
+        /**
+         * A single entry of the {@code objectCounts} array.
+         */
+        default void objectCount(String id, int count) {
+        }
+    }
+
+    /**
+     * Scalar fields of an instance in the {@code root} tree.
+     */
+    public static class InstanceNode {
+        private final int depth;
+        private String id;
+        private String definitionId;
+        private double[] transform;
+        private boolean hasChildren;
+
+        InstanceNode(int depth) {
+            this.depth = depth;
+        }
+
+        /**
+         * @return 0 for the root instance
+         */
+        public int getDepth() { return depth; }
+        public String getId() { return id; }
+        public String getDefinitionId() { return definitionId; }
+        /**
+         * @return the 4x4 row-major transform, or null if identity
+         */
+        public double[] getTransform() { return transform; }
+        public boolean isHasChildren() { return hasChildren; }
+    }
+
+    public void parse(Path assemblyJson, Handler handler) throws IOException {
+        try (Reader reader = Files.newBufferedReader(assemblyJson)) {
+            parse(reader, handler);
+        }
+    }
+
+    public void parse(Reader reader, Handler handler) {
+        try (JsonParser parser = Json.createParser(reader)) {
+            if (parser.next() != Event.START_OBJECT) {
+                throw new JsonParsingException("assembly.json must be an object", parser.getLocation());
+            }
+            boolean definitionsRead = false;
+            Event event;
+            while ((event = parser.next()) != Event.END_OBJECT) {
+                String key = parser.getString();
+                event = parser.next();
+                switch (key) {
+                    case "definitions":
+                        readDefinitions(parser, event, handler);
+                        definitionsRead = true;
+                        break;
+                    case "root":
+                        if (event == Event.START_OBJECT) {
+                            if (!definitionsRead) {
+                                throw new JsonParsingException("root found before definitions", parser.getLocation());
+                            }
+                            readInstance(parser, handler, 0);
+                        }
+                        break;
+                    case "objectCounts":
+                        readObjectCounts(parser, event, handler);
+                        break;
+                    default:
+                        skip(parser, event);
+                }
+            }
+        }
+    }
+
+    private void readDefinitions(JsonParser parser, Event event, Handler handler) {
+        if (event != Event.START_ARRAY) {
+            skip(parser, event);
+            return;
+        }
+        while ((event = parser.next()) != Event.END_ARRAY) {
+            if (event == Event.START_OBJECT) {
+                handler.definition(parser.getObject());
+            } else {
+                skip(parser, event);
+            }
+        }
+    }
+
+    private void readObjectCounts(JsonParser parser, Event event, Handler handler) {
+        if (event != Event.START_ARRAY) {
+            skip(parser, event);
+            return;
+        }
+        while ((event = parser.next()) != Event.END_ARRAY) {
+            if (event == Event.START_OBJECT) {
+                JsonObject count = parser.getObject();
+                handler.objectCount(count.getString("id", null), count.getInt("count", 0));
+            } else {
+                skip(parser, event);
+            }
+        }
+    }
+
+    private void readInstance(JsonParser parser, Handler handler, int depth) {
+        InstanceNode node = new InstanceNode(depth);
+        boolean started = false;
+        Event event;
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String key = parser.getString();
+            event = parser.next();
+            switch (key) {
+                case "id":
+                    node.id = parser.getString();
+                    break;
+                case "definitionId":
+                    node.definitionId = parser.getString();
+                    break;
+                case "transform":
+                    if (event == Event.START_ARRAY) {
+                        node.transform = readTransform(parser.getArray());
+                    }
+                    break;
+                case "children":
+                    if (event != Event.START_ARRAY) {
+                        skip(parser, event);
+                        break;
+                    }
+                    while ((event = parser.next()) != Event.END_ARRAY) {
+                        if (event == Event.START_OBJECT) {
+                            if (!started) {
+                                node.hasChildren = true;
+                                handler.startInstance(node);
+                                started = true;
+                            }
+                            readInstance(parser, handler, depth + 1);
+                        } else {
+                            skip(parser, event);
+                        }
+                    }
+                    break;
+                default:
+                    skip(parser, event);
+            }
+        }
+        if (!started) {
+            handler.startInstance(node);
+        }
+        handler.endInstance(node);
+    }
+
+    private double[] readTransform(JsonArray array) {
+        if (array.size() != 16) {
+            return null;
+        }
+        double[] transform = new double[16];
+        for (int i = 0; i < 16; i++) {
+            transform[i] = array.getJsonNumber(i).doubleValue();
+        }
+        return transform;
+    }
+
+    /**
+     * Skips the value that starts with {@code event}.
+     */
+    static void skip(JsonParser parser, Event event) {
+        if (event == Event.START_OBJECT) {
+            parser.skipObject();
+        } else if (event == Event.START_ARRAY) {
+            parser.skipArray();
+        }
+    }
+}
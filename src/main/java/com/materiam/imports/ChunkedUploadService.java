@@ -0,0 +1,126 @@
+package com.materiam.imports;
+
+import com.materiam.config.ImportConfig;
+import com.materiam.config.PathConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable uploads for very large CAD files. A session preallocates the
+ * whole file in a staging directory and every chunk is written at its own
+ * offset, so chunks can be retried independently. Once all of them are
+ * there the file is verified and moved into its CADFile directory.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class ChunkedUploadService {
+
+    // Sessions nobody wrote to for this long are dropped with their file
+    private static final long SESSION_TIMEOUT_MS = 24L * 60L * 60L * 1000L;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private Path staging;
+
+    @PostConstruct
+    public void init() {
+        staging = Paths.get(PathConfig.getUploadsPath());
+    }
+
+    /**
+     * Starts an upload of {@code size} bytes.
+     *
+     * @param expectedHash the SHA-256 the client computed, checked when the
+     *                     upload completes; may be null
+     */
+    public UploadSession create(String fileName, long size, String expectedHash) throws IOException {
+        purgeExpired();
+        long maxBytes = ImportConfig.getMaxUploadBytes();
+        if (size > maxBytes) {
+            throw new UploadWriter.TooLargeException(maxBytes);
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Upload size must be positive");
+        }
+        Files.createDirectories(staging);
+        UploadSession session = new UploadSession(fileName, size, ImportConfig.getUploadChunkBytes(),
+                expectedHash == null ? null : expectedHash.toLowerCase(), staging);
+        try (RandomAccessFile file = new RandomAccessFile(session.getFile().toFile(), "rw")) {
+            file.setLength(size);
+        }
+        sessions.put(session.getId(), session);
+        System.out.println("Upload session " + session.getId() + " for " + fileName + ": " + size + " bytes in "
+                + session.getChunkCount() + " chunks");
+        return session;
+    }
+
+    public UploadSession getSession(String id) {
+        return id == null ? null : sessions.get(id);
+    }
+
+    /**
+     * Writes chunk {@code index} of the session from {@code body}. Writing a
+     * chunk again simply overwrites it.
+     */
+    public void writeChunk(UploadSession session, int index, ReadableByteChannel body) throws IOException {
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new IllegalArgumentException("No chunk " + index + " in upload " + session.getId());
+        }
+        try (FileChannel out = FileChannel.open(session.getFile(), StandardOpenOption.WRITE)) {
+            UploadWriter.writeAt(body, out, session.getOffset(index), session.getLength(index));
+        }
+        session.markReceived(index);
+    }
+
+    /**
+     * Verifies a finished upload and moves it to {@code target}. The session
+     * is closed afterwards.
+     *
+     * @return the size, SHA-256 and pre-scan of the file
+     * @throws IOException if chunks are missing or the hash does not match
+     *         the one announced when the session was created
+     */
+    public UploadWriter.Stored complete(UploadSession session, Path target) throws IOException {
+        if (!session.isComplete()) {
+            throw new IOException("Upload " + session.getId() + " is missing "
+                    + (session.getChunkCount() - session.getReceived().cardinality()) + " chunks");
+        }
+        UploadWriter.Stored stored = UploadWriter.read(session.getFile());
+        if (session.getExpectedHash() != null && !session.getExpectedHash().equals(stored.getContentHash())) {
+            throw new IOException("Upload " + session.getId() + " has sha256 " + stored.getContentHash()
+                    + ", expected " + session.getExpectedHash());
+        }
+        Files.move(session.getFile(), target);
+        sessions.remove(session.getId());
+        return stored;
+    }
+
+    public void cancel(UploadSession session) {
+        sessions.remove(session.getId());
+        try {
+            Files.deleteIfExists(session.getFile());
+        } catch (IOException e) {
+            System.err.println("Could not delete " + session.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    private void purgeExpired() {
+        long cutoff = System.currentTimeMillis() - SESSION_TIMEOUT_MS;
+        for (UploadSession session : sessions.values()) {
+            if (session.getUpdated() < cutoff) {
+                System.out.println("Upload session expired: " + session.getId());
+                cancel(session);
+            }
+        }
+    }
+}
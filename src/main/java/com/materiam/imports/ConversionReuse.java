@@ -0,0 +1,126 @@
+package com.materiam.imports;
+
+import com.materiam.config.PathConfig;
+import com.materiam.entities.CADFile;
+import com.materiam.entities.ImportJournal;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Finds an earlier upload with the same content hash and reuses its stepguru
+ * outputs, so re-uploading an unchanged STEP file does not convert it again.
+ *
+ * Outputs are hard linked into the new CADFile directory when the file
+ * system allows it and copied otherwise. Nothing rewrites them in place, so
+ * deleting either project only removes its own links.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class ConversionReuse {
+
+    @PersistenceContext(unitName = "materiam")
+    private EntityManager em;
+
+    /**
+     * @return a previous import of the same file whose conversion is known
+     *         to be complete, or null if there is none
+     */
+    public CADFile findConverted(ImportJob job) {
+        if (job.getContentHash() == null) {
+            return null;
+        }
+        List<CADFile> matches = em.createQuery(
+                "select cf from CADFile cf where cf.contentHash = :hash and cf.id <> :id order by cf.id desc",
+                CADFile.class)
+                .setParameter("hash", job.getContentHash())
+                .setParameter("id", job.getCadfileId())
+                .getResultList();
+        for (CADFile cf : matches) {
+            if (cf.getProject() != null && isConverted(cf)
+                    && Files.exists(directoryOf(cf).resolve("assembly.json"))) {
+                return cf;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An import still running has reached CONVERTED once its journal says
+     * so. Without a journal the import ended, and only one that persisted
+     * its parts is sure to have finished converting; a failed or cancelled
+     * one may have left stepguru output half written.
+     */
+    private boolean isConverted(CADFile cf) {
+        List<ImportJournal> journals = em.createQuery(
+                "select j from ImportJournal j where j.cadfileId = :cadfileId", ImportJournal.class)
+                .setParameter("cadfileId", cf.getId())
+                .getResultList();
+        if (!journals.isEmpty()) {
+            for (ImportJournal journal : journals) {
+                if (!ImportCheckpoint.valueOf(journal.getCheckpoint()).isReached(ImportCheckpoint.CONVERTED)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (cf.getRoot() != null) {
+            return true;
+        }
+        return em.createQuery("select count(p) from Part p where p.cadfile.id = :cadfileId", Long.class)
+                .setParameter("cadfileId", cf.getId())
+                .getSingleResult() > 0;
+    }
+
+    static Path directoryOf(CADFile cf) {
+        return Paths.get(PathConfig.getProjectsPath(), cf.getProject().getUuid(), cf.getUuid());
+    }
+
+    /**
+     * Links every stepguru output of {@code source} into the job directory.
+     * The uploaded file and the amatix simulation directories are left out.
+     *
+     * @return the number of files reused
+     */
+    public int reuse(CADFile source, ImportJob job) throws IOException {
+        Path target = Paths.get(job.getDirectory());
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directoryOf(source))) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                // The upload itself may well be called out_something.step
+                if (!Files.isRegularFile(file) || name.equals(source.getName()) || !isConversionOutput(name)) {
+                    continue;
+                }
+                Path dest = target.resolve(name);
+                if (Files.exists(dest)) {
+                    continue;
+                }
+                try {
+                    Files.createLink(dest, file);
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(file, dest);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true for the files stepguru writes next to the uploaded STEP
+     */
+    static boolean isConversionOutput(String name) {
+        return name.equals("assembly.json")
+                || (name.startsWith("out_") && (name.endsWith(".glb") || name.endsWith(".step")))
+                || (name.startsWith("image_") && name.endsWith(".png"))
+                || (name.startsWith("weld_interfaces_") && name.endsWith(".json"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.materiam.imports;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The imports of several CAD files uploaded together, e.g. the STEP files
+ * of one zip archive. Every file is its own {@link ImportJob} and runs in
+ * parallel with the others as far as the {@link ImportScheduler} allows;
+ * the batch only adds up their progress.
+ *
+ * @author mufufu
+ */
+public class ImportBatch {
+
+    private final String id = UUID.randomUUID().toString();
+    private final String name;
+    private final long created = System.currentTimeMillis();
+    private final List<ImportJob> jobs = new CopyOnWriteArrayList<>();
+    private volatile String error;
+
+    public ImportBatch(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds the import of one file of the batch.
+     */
+    public void add(ImportJob job) {
+        job.setBatch(this);
+        jobs.add(job);
+    }
+
+    public String getId() { return id; }
+
+    /**
+     * @return the name of the upload, e.g. the archive file name
+     */
+    public String getName() { return name; }
+    public List<ImportJob> getJobs() { return jobs; }
+    public int getSize() { return jobs.size(); }
+
+    /**
+     * @return why the upload was not read to the end, null if it was
+     */
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public int getFinishedCount() {
+        int count = 0;
+        for (ImportJob job : jobs) {
+            if (job.isFinished()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getFailedCount() {
+        int count = 0;
+        for (ImportJob job : jobs) {
+            if (job.getState() == ImportState.FAILED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isFinished() {
+        return getFinishedCount() == jobs.size();
+    }
+
+    /**
+     * @return a one line progress report for the websocket
+     */
+    public String getSummary() {
+        int finished = getFinishedCount();
+        int failed = getFailedCount();
+        StringBuilder sb = new StringBuilder(name).append(": ").append(finished).append(" of ")
+                .append(jobs.size()).append(" files imported");
+        if (failed > 0) {
+            sb.append(", ").append(failed).append(" failed");
+        }
+        if (finished == jobs.size()) {
+            sb.append(" in ").append((System.currentTimeMillis() - created) / 1000).append(" s");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "ImportBatch[id=" + id + ", name=" + name + ", jobs=" + jobs.size() + "]";
+    }
+}
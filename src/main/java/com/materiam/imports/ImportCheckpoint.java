@@ -0,0 +1,20 @@
+package com.materiam.imports;
+
+/**
+ * The last stage of an import that is known to be complete, as recorded in
+ * its {@link com.materiam.entities.ImportJournal}. An import interrupted by
+ * a crash or redeploy resumes with the stage after it.
+ *
+ * @author mufufu
+ */
+public enum ImportCheckpoint {
+
+    STORED,         // the STEP file is on disk and the CADFile row exists
+    CONVERTED,      // assembly.json and the part files are on disk
+    PERSISTED;      // parts, assemblies and instances are in the database;
+                    // simulated parts are marked on the Part itself
+
+    public boolean isReached(ImportCheckpoint checkpoint) {
+        return ordinal() >= checkpoint.ordinal();
+    }
+}
@@ -0,0 +1,279 @@
+package com.materiam.imports;
+
+import com.materiam.entities.ImportJournal;
+import com.materiam.entities.ImportTimeline;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory state of a single CAD file import. Jobs are created by
+ * {@link ImportService#submit} and updated by the import worker thread, so
+ * every mutable field is volatile.
+ *
+ * @author mufufu
+ */
+public class ImportJob {
+
+    private final String id;
+    private final Long projectId;
+    private final String projectUuid;
+    private final Long cadfileId;
+    private final String cadfileUuid;
+    private final String contentHash;
+    private final String fileName;
+    private final String directory;
+    private final Set<String> wsids;
+    private final String tenant;
+    private final Date created;
+    private final ImportTimeline timeline;
+
+    private volatile ImportState state;
+    private volatile String message;
+    private volatile String error;
+    private volatile String previewPersid;
+    private volatile Date updated;
+    private volatile ImportPriority priority;
+    private volatile int queuePosition;
+    private volatile boolean cancelled;
+    private volatile ImportCheckpoint checkpoint = ImportCheckpoint.STORED;
+    private volatile StepScan stepScan;
+    private volatile int treeVersion;
+    private volatile ImportBatch batch;
+    private volatile RevisionDiff revisionDiff;
+    private long treePublished;
+
+    // Set while the worker runs an external tool and may be interrupted
+    private Thread interruptible;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    public ImportJob(Long projectId, String projectUuid, Long cadfileId, String cadfileUuid,
+                     String contentHash, String fileName, String directory, Set<String> wsids,
+                     String tenant, long uploadBytes, long uploadMillis) {
+        this(UUID.randomUUID().toString(), projectId, projectUuid, cadfileId, cadfileUuid, contentHash, fileName,
+                directory, wsids, tenant, uploadBytes, uploadMillis);
+    }
+
+    private ImportJob(String id, Long projectId, String projectUuid, Long cadfileId, String cadfileUuid,
+                      String contentHash, String fileName, String directory, Set<String> wsids,
+                      String tenant, long uploadBytes, long uploadMillis) {
+        this.id = id;
+        this.projectId = projectId;
+        this.projectUuid = projectUuid;
+        this.cadfileId = cadfileId;
+        this.cadfileUuid = cadfileUuid;
+        this.contentHash = contentHash;
+        this.fileName = fileName;
+        this.directory = directory;
+        this.wsids = Collections.unmodifiableSet(new HashSet<>(wsids));
+        this.tenant = tenant;
+        this.priority = ImportPriority.forUploadBytes(uploadBytes);
+        this.created = new Date();
+        this.updated = created;
+        this.state = ImportState.QUEUED;
+        this.timeline = new ImportTimeline();
+        timeline.setJobId(id);
+        timeline.setProjectId(projectId);
+        timeline.setCadfileId(cadfileId);
+        timeline.setFileName(fileName);
+        timeline.setStartedAt(created);
+        timeline.setUploadBytes(uploadBytes);
+        timeline.setUploadMillis(uploadMillis);
+    }
+
+    /**
+     * Recreates an import that was interrupted by a crash or redeploy. It
+     * continues after the last checkpoint in its journal; nobody is
+     * listening on a websocket for it any more.
+     */
+    static ImportJob resume(ImportJournal journal) {
+        ImportJob job = new ImportJob(journal.getJobId(), journal.getProjectId(), journal.getProjectUuid(),
+                journal.getCadfileId(), journal.getCadfileUuid(), journal.getContentHash(), journal.getFileName(),
+                journal.getDirectory(), Collections.emptySet(), journal.getTenant(), journal.getUploadBytes(), 0);
+        job.checkpoint = ImportCheckpoint.valueOf(journal.getCheckpoint());
+        return job;
+    }
+
+    /**
+     * Moves the job to a new stage.
+     */
+    void setState(ImportState state) {
+        this.state = state;
+        this.updated = new Date();
+    }
+
+    /**
+     * Marks the job as cancelled and interrupts the worker if it is
+     * waiting for stepguru or amatix, which kills the tool. Otherwise the
+     * worker stops at the next stage.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        if (interruptible != null) {
+            interruptible.interrupt();
+        }
+    }
+
+    public boolean isCancelled() { return cancelled; }
+
+    /**
+     * @return the last stage known to be complete
+     */
+    public ImportCheckpoint getCheckpoint() { return checkpoint; }
+    void setCheckpoint(ImportCheckpoint checkpoint) { this.checkpoint = checkpoint; }
+
+    /**
+     * @throws InterruptedException if the job has been cancelled
+     */
+    void checkCancelled() throws InterruptedException {
+        if (cancelled) {
+            throw new InterruptedException("Import cancelled");
+        }
+    }
+
+    /**
+     * Lets {@link #cancel()} interrupt the calling thread until
+     * {@link #leaveInterruptible()}. Only tool runs and waits for them are
+     * interrupted; an interrupt during a database write would break the
+     * connection.
+     */
+    synchronized void enterInterruptible() throws InterruptedException {
+        checkCancelled();
+        interruptible = Thread.currentThread();
+    }
+
+    synchronized void leaveInterruptible() {
+        interruptible = null;
+        // A cancel that came too late for the tool must not hit the next stage
+        Thread.interrupted();
+    }
+
+    /**
+     * Called by the worker when it is done with the job, whatever the outcome.
+     */
+    void stopped() {
+        stopped.countDown();
+    }
+
+    /**
+     * @return false if the worker was still busy with the job after
+     *         {@code millis}
+     */
+    boolean awaitStopped(long millis) throws InterruptedException {
+        return stopped.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    void fail(String error) {
+        this.error = error;
+        setState(ImportState.FAILED);
+    }
+
+    public String getId() { return id; }
+    public Long getProjectId() { return projectId; }
+    public String getProjectUuid() { return projectUuid; }
+    public Long getCadfileId() { return cadfileId; }
+    public String getCadfileUuid() { return cadfileUuid; }
+    public String getContentHash() { return contentHash; }
+    public String getFileName() { return fileName; }
+    public String getDirectory() { return directory; }
+    public Set<String> getWsids() { return wsids; }
+
+    /**
+     * @return who the import is run for, e.g. "org:12"; imports of the same
+     *         tenant share one fair slice of the import workers
+     */
+    public String getTenant() { return tenant; }
+    public ImportPriority getPriority() { return priority; }
+
+    /**
+     * @return the pre-scan of the uploaded STEP file, or null if it could
+     *         not be read or has not run yet
+     */
+    public StepScan getStepScan() { return stepScan; }
+
+    /**
+     * Sets the pre-scan and the priority that follows from it.
+     */
+    void setStepScan(StepScan stepScan) {
+        this.stepScan = stepScan;
+        this.priority = ImportPriority.forScan(stepScan);
+        timeline.setScanMillis(stepScan.getMillis());
+        timeline.setStepProducts(stepScan.getProducts());
+        timeline.setStepOccurrences(stepScan.getOccurrences());
+    }
+    void setPriority(ImportPriority priority) { this.priority = priority; }
+
+    /**
+     * @return the place of the job in the import queue starting at 1, or 0
+     *         if it is not waiting
+     */
+    public int getQueuePosition() { return queuePosition; }
+    void setQueuePosition(int queuePosition) { this.queuePosition = queuePosition; }
+    public Date getCreated() { return created; }
+    public Date getUpdated() { return updated; }
+    public ImportState getState() { return state; }
+    public boolean isFinished() { return state.isFinished(); }
+    public String getError() { return error; }
+
+    public String getMessage() { return message; }
+    void setMessage(String message) { this.message = message; }
+
+    /**
+     * Persid of the part or assembly to show in the viewer once the import is done.
+     */
+    public String getPreviewPersid() { return previewPersid; }
+    void setPreviewPersid(String previewPersid) { this.previewPersid = previewPersid; }
+
+    /**
+     * @return a number that goes up every time parts of this import were
+     *         written, so pages can tell whether their tree is stale
+     */
+    public int getTreeVersion() { return treeVersion; }
+
+    /**
+     * Records that parts of this import were written.
+     *
+     * @param minIntervalMs how long after the last published change a new
+     *                      one may be published
+     * @return whether the change should be pushed to the browser now
+     */
+    synchronized boolean treeChanged(long minIntervalMs) {
+        treeVersion++;
+        long now = System.currentTimeMillis();
+        if (now - treePublished < minIntervalMs) {
+            return false;
+        }
+        treePublished = now;
+        return true;
+    }
+
+    /**
+     * @return the batch this import was uploaded with, or null if it was
+     *         uploaded on its own
+     */
+    public ImportBatch getBatch() { return batch; }
+    void setBatch(ImportBatch batch) { this.batch = batch; }
+
+    /**
+     * @return what changed against the previous revision, or null if this
+     *         is not the import of a new revision
+     */
+    public RevisionDiff getRevisionDiff() { return revisionDiff; }
+    void setRevisionDiff(RevisionDiff revisionDiff) { this.revisionDiff = revisionDiff; }
+
+    /**
+     * Stage timings, filled in by the import worker and stored once the
+     * import is finished.
+     */
+    public ImportTimeline getTimeline() { return timeline; }
+
+    @Override
+    public String toString() {
+        return "ImportJob[id=" + id + ", state=" + state + ", file=" + fileName + ", tenant=" + tenant
+                + ", priority=" + priority + "]";
+    }
+}
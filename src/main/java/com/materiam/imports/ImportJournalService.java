@@ -0,0 +1,82 @@
+package com.materiam.imports;
+
+import com.materiam.entities.CADFile;
+import com.materiam.entities.ImportJournal;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Keeps the {@link ImportJournal} of every unfinished import up to date.
+ * Each method joins the caller's transaction if there is one, which is how
+ * a checkpoint commits together with the work it stands for.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+@Transactional
+public class ImportJournalService {
+
+    @PersistenceContext(unitName = "materiam")
+    private EntityManager em;
+
+    public void open(ImportJob job) {
+        ImportJournal journal = new ImportJournal();
+        journal.setJobId(job.getId());
+        journal.setProjectId(job.getProjectId());
+        journal.setProjectUuid(job.getProjectUuid());
+        journal.setCadfileId(job.getCadfileId());
+        journal.setCadfileUuid(job.getCadfileUuid());
+        journal.setContentHash(job.getContentHash());
+        journal.setFileName(job.getFileName());
+        journal.setDirectory(job.getDirectory());
+        journal.setTenant(job.getTenant());
+        journal.setUploadBytes(job.getTimeline().getUploadBytes());
+        journal.setCheckpoint(job.getCheckpoint().name());
+        journal.setCreated(job.getCreated());
+        journal.setUpdated(job.getCreated());
+        em.persist(journal);
+    }
+
+    public void checkpoint(ImportJob job, ImportCheckpoint checkpoint) {
+        job.setCheckpoint(checkpoint);
+        ImportJournal journal = em.find(ImportJournal.class, job.getId());
+        if (journal != null) {
+            journal.setCheckpoint(checkpoint.name());
+            journal.setUpdated(new Date());
+        }
+    }
+
+    /**
+     * Removes the journal of an import that ended, however it ended.
+     */
+    public void close(String jobId) {
+        ImportJournal journal = em.find(ImportJournal.class, jobId);
+        if (journal != null) {
+            em.remove(journal);
+        }
+    }
+
+    /**
+     * @return the imports that were running or waiting when the server
+     *         stopped, oldest first; journals of CADFiles that have been
+     *         deleted since are removed
+     */
+    public List<ImportJournal> findResumable() {
+        List<ImportJournal> open = em.createQuery("select j from ImportJournal j order by j.created",
+                ImportJournal.class).getResultList();
+        List<ImportJournal> resumable = new ArrayList<>();
+        for (ImportJournal journal : open) {
+            if (em.find(CADFile.class, journal.getCadfileId()) == null) {
+                em.remove(journal);
+            } else {
+                resumable.add(journal);
+            }
+        }
+        return resumable;
+    }
+}
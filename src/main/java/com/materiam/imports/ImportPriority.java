@@ -0,0 +1,53 @@
+package com.materiam.imports;
+
+import com.materiam.config.ImportConfig;
+
+/**
+ * Scheduling class of an import, most urgent first. Small uploads are
+ * usually someone waiting for a quote on a single part, so they start
+ * before large assemblies that take minutes anyway.
+ *
+ * @author mufufu
+ */
+public enum ImportPriority {
+
+    INTERACTIVE,    // single parts and small assemblies
+    STANDARD,
+    BULK;           // large assemblies
+
+    /**
+     * Classifies an upload by the size of its STEP file.
+     */
+    public static ImportPriority forUploadBytes(long bytes) {
+        if (bytes <= ImportConfig.getInteractiveImportMaxBytes()) {
+            return INTERACTIVE;
+        }
+        if (bytes >= ImportConfig.getBulkImportMinBytes()) {
+            return BULK;
+        }
+        return STANDARD;
+    }
+
+    /**
+     * Classifies an upload by its STEP pre-scan, which says more about the
+     * work than the file size: a small file can hold thousands of
+     * instances of a few parts.
+     */
+    public static ImportPriority forScan(StepScan scan) {
+        if (scan.getBsplineSurfaces() >= ImportConfig.getBulkImportMinSurfaces()
+                || scan.getEstimatedRows() >= ImportConfig.getBulkImportMinRows()) {
+            return BULK;
+        }
+        if (scan.getEstimatedRows() <= ImportConfig.getInteractiveImportMaxRows()) {
+            return INTERACTIVE;
+        }
+        return STANDARD;
+    }
+
+    /**
+     * @return the class {@code steps} levels more urgent than this one
+     */
+    public ImportPriority promote(int steps) {
+        return values()[Math.max(0, ordinal() - steps)];
+    }
+}
@@ -0,0 +1,236 @@
+package com.materiam.imports;
+
+import com.materiam.config.ImportConfig;
+import events.EventQualifier;
+import events.ImportUpdate;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admission control for imports. At most materiam.import.workers imports
+ * run at once; the others wait here. When a worker frees up the next import
+ * is chosen by
+ *
+ * <ol>
+ * <li>priority, where every {@value #AGING_MS} ms of waiting promotes a job
+ *     by one class so bulk imports are not postponed forever,</li>
+ * <li>the tenant with the fewest running imports, so one organization
+ *     uploading many files cannot take every worker,</li>
+ * <li>the tenant that started an import longest ago,</li>
+ * <li>and finally the order of arrival.</li>
+ * </ol>
+ *
+ * Waiting jobs are told their place in the queue over the websocket
+ * whenever it changes.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class ImportScheduler {
+
+    static final long AGING_MS = 10L * 60L * 1000L;
+
+    @Resource(lookup = "java:app/concurrent/ImportExecutor")
+    private ManagedExecutorService executor;
+
+    @Inject
+    @EventQualifier
+    private Event<ImportUpdate> importUpdate;
+
+    private int workers;
+
+    // Guarded by this
+    private final List<Waiting> waiting = new ArrayList<>();
+    private final Map<String, Integer> running = new HashMap<>();
+    private final Map<String, Long> lastStart = new HashMap<>();
+    private long arrivals;
+    private long starts;
+
+    private static class Waiting {
+        final ImportJob job;
+        final Runnable task;
+        final long arrival;
+        final long enqueued = System.currentTimeMillis();
+
+        Waiting(ImportJob job, Runnable task, long arrival) {
+            this.job = job;
+            this.task = task;
+            this.arrival = arrival;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        workers = ImportConfig.getImportWorkers();
+        System.out.println("Import workers: " + workers);
+    }
+
+    /**
+     * Queues {@code task}, the import of {@code job}, and starts it right
+     * away if a worker is free.
+     */
+    public void enqueue(ImportJob job, Runnable task) {
+        List<ImportJob> moved;
+        synchronized (this) {
+            waiting.add(new Waiting(job, task, arrivals++));
+            moved = dispatch();
+        }
+        notifyPositions(moved);
+    }
+
+    /**
+     * Takes a job out of the queue before it started.
+     *
+     * @return false if the job is not waiting, e.g. because it is running
+     */
+    public boolean remove(ImportJob job) {
+        List<ImportJob> moved;
+        synchronized (this) {
+            if (!waiting.removeIf(w -> w.job == job)) {
+                return false;
+            }
+            job.setQueuePosition(0);
+            moved = dispatch();
+        }
+        notifyPositions(moved);
+        return true;
+    }
+
+    /**
+     * @return the number of imports waiting for a worker
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * @return the number of imports holding a worker
+     */
+    public synchronized int getRunningCount() {
+        int count = 0;
+        for (int n : running.values()) {
+            count += n;
+        }
+        return count;
+    }
+
+    private void finished(ImportJob job) {
+        List<ImportJob> moved;
+        synchronized (this) {
+            running.merge(job.getTenant(), -1, (a, b) -> a + b == 0 ? null : a + b);
+            moved = dispatch();
+        }
+        notifyPositions(moved);
+    }
+
+    /**
+     * Starts waiting jobs while workers are free and renumbers the rest.
+     *
+     * @return the waiting jobs whose queue position changed
+     */
+    private List<ImportJob> dispatch() {
+        long now = System.currentTimeMillis();
+        while (!waiting.isEmpty() && getRunningCount() < workers) {
+            Waiting next = pickNext(waiting, running, lastStart, now);
+            waiting.remove(next);
+            String tenant = next.job.getTenant();
+            running.merge(tenant, 1, Integer::sum);
+            lastStart.put(tenant, starts++);
+            next.job.setQueuePosition(0);
+            System.out.println("Starting import " + next.job + " after " + (now - next.enqueued) + " ms in queue");
+            start(next);
+        }
+
+        // Replay the choice on copies to find the order the rest will start in
+        List<ImportJob> moved = new ArrayList<>();
+        List<Waiting> remaining = new ArrayList<>(waiting);
+        Map<String, Integer> runningCopy = new HashMap<>(running);
+        Map<String, Long> lastStartCopy = new HashMap<>(lastStart);
+        long startsCopy = starts;
+        for (int position = 1; !remaining.isEmpty(); position++) {
+            Waiting next = pickNext(remaining, runningCopy, lastStartCopy, now);
+            remaining.remove(next);
+            runningCopy.merge(next.job.getTenant(), 1, Integer::sum);
+            lastStartCopy.put(next.job.getTenant(), startsCopy++);
+            if (next.job.getQueuePosition() != position) {
+                next.job.setQueuePosition(position);
+                moved.add(next.job);
+            }
+        }
+        return moved;
+    }
+
+    private void start(Waiting next) {
+        try {
+            executor.submit(() -> {
+                try {
+                    next.task.run();
+                } finally {
+                    finished(next.job);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Executor rejected the task, e.g. while the application stops
+            running.merge(next.job.getTenant(), -1, (a, b) -> a + b == 0 ? null : a + b);
+            next.job.fail("Import could not be started: " + e.getMessage());
+            next.job.stopped();
+            System.err.println("Could not start import " + next.job + ": " + e.getMessage());
+        }
+    }
+
+    private static Waiting pickNext(List<Waiting> candidates, Map<String, Integer> running,
+                                    Map<String, Long> lastStart, long now) {
+        Waiting best = null;
+        for (Waiting candidate : candidates) {
+            if (best == null || compare(candidate, best, running, lastStart, now) < 0) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static int compare(Waiting a, Waiting b, Map<String, Integer> running,
+                               Map<String, Long> lastStart, long now) {
+        int c = Integer.compare(effectivePriority(a, now).ordinal(), effectivePriority(b, now).ordinal());
+        if (c != 0) {
+            return c;
+        }
+        c = Integer.compare(running.getOrDefault(a.job.getTenant(), 0), running.getOrDefault(b.job.getTenant(), 0));
+        if (c != 0) {
+            return c;
+        }
+        c = Long.compare(lastStart.getOrDefault(a.job.getTenant(), -1L), lastStart.getOrDefault(b.job.getTenant(), -1L));
+        if (c != 0) {
+            return c;
+        }
+        return Long.compare(a.arrival, b.arrival);
+    }
+
+    private static ImportPriority effectivePriority(Waiting w, long now) {
+        return w.job.getPriority().promote((int) ((now - w.enqueued) / AGING_MS));
+    }
+
+    private void notifyPositions(List<ImportJob> moved) {
+        for (ImportJob job : moved) {
+            int position = job.getQueuePosition();
+            if (position == 0) {
+                continue;
+            }
+            String msg = position == 1
+                    ? job.getFileName() + " is next in the import queue"
+                    : job.getFileName() + " is number " + position + " in the import queue";
+            job.setMessage(msg);
+            for (String wsid : job.getWsids()) {
+                importUpdate.fire(new ImportUpdate(msg, wsid));
+            }
+        }
+    }
+}
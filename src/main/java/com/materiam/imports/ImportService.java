@@ -0,0 +1,521 @@
+package com.materiam.imports;
+
+import com.materiam.entities.CADFile;
+import com.materiam.entities.ImportJournal;
+import com.materiam.entities.ImportTimeline;
+import com.materiam.entities.Part;
+import com.materiam.entities.Project;
+import com.materiam.shapes.ShapeCode;
+import com.materiam.tools.CadToolRunner;
+import com.materiam.tools.ToolResult;
+import events.EventQualifier;
+import events.ImportUpdate;
+import events.SimulationCompleted;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs CAD imports in the background on a managed executor, so that a large
+ * assembly does not hold a request or session thread while stepguru and
+ * amatix run. The {@link ImportScheduler} decides when each import starts.
+ * Each upload becomes an {@link ImportJob} that can be queried by id while
+ * it moves through the {@link ImportState} stages.
+ *
+ * The page is told to show the tree as soon as the assembly is saved, with
+ * everything stepguru measured; bend simulation results follow part by part
+ * while amatix is still running.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class ImportService {
+
+    public static final String IMPORT_DONE_PREFIX = "IMPORTDONE:";
+
+    /**
+     * Sent when the parts of a running import changed in the database; the
+     * page re-renders its tree without reloading.
+     */
+    public static final String IMPORT_TREE_PREFIX = "IMPORTTREE:";
+
+    // Simulation results of large assemblies are pushed at most this often
+    static final long TREE_UPDATE_MS = 2000;
+
+    // Finished jobs are kept this long so the status can still be queried
+    private static final long FINISHED_JOB_RETENTION_MS = 60L * 60L * 1000L;
+
+    static final long CANCEL_WAIT_MS = 10000;
+
+    @Inject
+    private ImportScheduler scheduler;
+
+    @Inject
+    private AssemblyImporter assemblyImporter;
+
+    @Inject
+    private ConversionReuse conversionReuse;
+
+    @Inject
+    private ImportTimelineService timelineService;
+
+    @Inject
+    private ImportJournalService journal;
+
+    @Inject
+    private CadToolRunner toolRunner;
+
+    @Inject
+    private SimulationRunner simulationRunner;
+
+    @Inject
+    private PartStore partStore;
+
+    @Inject
+    @EventQualifier
+    private Event<ImportUpdate> importUpdate;
+
+    @Inject
+    private Event<ImportJob> jobSubmitted;
+
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Registers an import for a CADFile whose STEP file is already stored in
+     * {@code directory}. The job is handed to the scheduler once the caller's
+     * transaction commits, so the worker always sees the CADFile row.
+     *
+     * @param tenant       who the import runs for, see {@link ImportJob#getTenant()}
+     * @param uploadBytes  size of the stored file, for the timeline and
+     *                     the {@link ImportPriority}
+     * @param uploadMillis time it took to receive the file, for the timeline
+     * @param scan         the pre-scan made while the file was stored, which
+     *                     sets the priority; null to scan on the worker
+     */
+    public ImportJob submit(Project project, CADFile cadfile, String directory, String fileName, Set<String> wsids,
+                            String tenant, long uploadBytes, long uploadMillis, StepScan scan) {
+        purgeFinishedJobs();
+        ImportJob job = new ImportJob(project.getId(), project.getUuid(), cadfile.getId(), cadfile.getUuid(),
+                cadfile.getContentHash(), fileName, directory, wsids, tenant, uploadBytes, uploadMillis);
+        if (scan != null) {
+            job.setStepScan(scan);
+            System.out.println("Pre-scan of " + fileName + ": " + scan + ", priority " + job.getPriority());
+        }
+        jobs.put(job.getId(), job);
+        journal.open(job);
+        System.out.println("Import job queued: " + job);
+        jobSubmitted.fire(job);
+        return job;
+    }
+
+    /**
+     * Queues the imports that were interrupted by a crash or redeploy
+     * again. Each one continues after its last checkpoint.
+     */
+    void resumeInterrupted(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        for (ImportJournal entry : journal.findResumable()) {
+            if (!Files.isDirectory(Paths.get(entry.getDirectory()))) {
+                System.out.println("Dropping interrupted import of " + entry.getFileName() + ", its files are gone");
+                journal.close(entry.getJobId());
+                continue;
+            }
+            ImportJob job = ImportJob.resume(entry);
+            jobs.put(job.getId(), job);
+            System.out.println("Resuming interrupted import " + job + " after " + job.getCheckpoint());
+            scheduler.enqueue(job, () -> run(job));
+        }
+    }
+
+    public ImportJob getJob(String id) {
+        return id == null ? null : jobs.get(id);
+    }
+
+    public List<ImportJob> getJobsForProject(Long projectId) {
+        List<ImportJob> result = new ArrayList<>();
+        for (ImportJob job : jobs.values()) {
+            if (job.getProjectId() != null && job.getProjectId().equals(projectId)) {
+                result.add(job);
+            }
+        }
+        result.sort((a, b) -> a.getCreated().compareTo(b.getCreated()));
+        return result;
+    }
+
+    void onSubmitted(@Observes(during = TransactionPhase.AFTER_SUCCESS) ImportJob job) {
+        scheduler.enqueue(job, () -> run(job));
+    }
+
+    /**
+     * Pushes the simulation results of a running import to the page as they
+     * are saved, throttled so an assembly with hundreds of folded parts does
+     * not re-render the tree hundreds of times.
+     */
+    void onSimulationCompleted(@Observes SimulationCompleted event) {
+        ImportJob job = jobs.get(event.getJobId());
+        if (job != null) {
+            publishTree(job, TREE_UPDATE_MS);
+        }
+    }
+
+    void onSubmitFailed(@Observes(during = TransactionPhase.AFTER_FAILURE) ImportJob job) {
+        job.fail("Upload transaction was rolled back");
+        System.out.println("Import job discarded: " + job);
+    }
+
+    private void run(ImportJob job) {
+        Path dir = Paths.get(job.getDirectory());
+        ImportTimeline timeline = job.getTimeline();
+        timeline.setQueueMillis(System.currentTimeMillis() - job.getCreated().getTime());
+        try {
+            job.checkCancelled();
+            if (job.getStepScan() == null && !job.getCheckpoint().isReached(ImportCheckpoint.PERSISTED)) {
+                scanUpload(job);
+            }
+            Path assemblyJson = dir.resolve("assembly.json");
+            if (!job.getCheckpoint().isReached(ImportCheckpoint.CONVERTED)) {
+                convert(job, dir, assemblyJson);
+            }
+
+            List<Part> parts;
+            if (!job.getCheckpoint().isReached(ImportCheckpoint.PERSISTED)) {
+                advance(job, ImportState.PARSING, "Reading assembly structure...");
+                parts = assemblyImporter.persistAssembly(job, assemblyJson,
+                        () -> advance(job, ImportState.PERSISTING, "Saving parts..."));
+                job.checkCancelled();
+                sendUpdate(job, "Saved " + timeline.getPersistedRows() + " rows in " + timeline.getPersistMillis()
+                        + " ms (" + timeline.getRowsPerSecond() + " rows/s)");
+                if (job.getRevisionDiff() != null) {
+                    sendUpdate(job, job.getRevisionDiff().getSummary());
+                }
+                long shared = partStore.share(dir, parts);
+                System.out.println("Part store: " + shared / 1024 + " KB of " + job.getFileName()
+                        + " shared with earlier imports");
+                // The tree and its metrics are usable now; simulations fill in as they finish
+                publishTree(job, 0);
+            } else {
+                parts = assemblyImporter.findUnsimulatedParts(job.getCadfileId());
+            }
+
+            advance(job, ImportState.SIMULATING, "Running bend simulations...");
+            System.out.println("\n=== Running Amatix for Folded Sheet Metal Parts ===");
+            List<Part> folded = new ArrayList<>();
+            for (Part part : parts) {
+                if (ShapeCode.of(part) == ShapeCode.SHEET_METAL_FOLDED && !Boolean.TRUE.equals(part.getSimulated())) {
+                    System.out.println("Found SHEET_METAL_FOLDED part: " + part.getName() + " persid: " + part.getPersid());
+                    folded.add(part);
+                }
+            }
+            if (!folded.isEmpty()) {
+                long start = System.currentTimeMillis();
+                // Interruptible only while it waits, results are saved in between
+                List<SimulationResult> results = simulationRunner.simulate(job, folded,
+                        msg -> sendUpdate(job, msg));
+                job.checkCancelled();
+                timeline.setSimulationMillis(System.currentTimeMillis() - start);
+                timeline.setSimulatedParts(results.size());
+                timeline.setSimulationTimes(toJson(results));
+            }
+
+            advance(job, ImportState.DONE, "Import complete: " + job.getFileName());
+            broadcast(job, IMPORT_DONE_PREFIX + job.getId());
+            closeJournal(job);
+        } catch (InterruptedException ex) {
+            if (job.isCancelled()) {
+                cancelled(job);
+                closeJournal(job);
+            } else {
+                // The executor is shutting down; the journal stays so the import resumes
+                System.out.println("Import " + job + " interrupted after " + job.getCheckpoint());
+                job.fail("Interrupted, will resume after a restart");
+            }
+        } catch (Exception ex) {
+            if (job.isCancelled()) {
+                cancelled(job);
+            } else {
+                System.getLogger(ImportService.class.getName()).log(System.Logger.Level.ERROR,
+                    "Import failed for " + job, ex);
+                job.fail(ex.getMessage());
+                sendUpdate(job, "Import failed: " + job.getFileName());
+            }
+            closeJournal(job);
+        } finally {
+            saveTimeline(job);
+            job.stopped();
+            reportBatch(job);
+        }
+    }
+
+    /**
+     * Runs stepguru, unless an earlier upload of the same file was already
+     * converted, and records the CONVERTED checkpoint.
+     */
+    private void convert(ImportJob job, Path dir, Path assemblyJson) throws IOException, InterruptedException {
+        ImportTimeline timeline = job.getTimeline();
+        advance(job, ImportState.CONVERTING, "Converting " + job.getFileName() + "...");
+        // Whatever is there comes from a conversion that was interrupted
+        deleteConversionOutput(job, dir);
+        CADFile converted = conversionReuse.findConverted(job);
+        if (converted != null) {
+            int reused = conversionReuse.reuse(converted, job);
+            System.out.println("Reused " + reused + " stepguru outputs from " + ConversionReuse.directoryOf(converted));
+            sendUpdate(job, job.getFileName() + " was converted before, reusing the result");
+        }
+        timeline.setConversionReused(Files.exists(assemblyJson));
+        if (!Files.exists(assemblyJson)) {
+            long start = System.currentTimeMillis();
+            ToolResult result;
+            job.enterInterruptible();
+            try {
+                result = runStepguru(job);
+            } finally {
+                job.leaveInterruptible();
+            }
+            job.checkCancelled();
+            timeline.setStepguruMillis(System.currentTimeMillis() - start);
+            timeline.setStepguruExitCode(result.getExitCode());
+            if (result.isTimedOut()) {
+                throw new IOException(withStderr("stepguru was killed after " + result.getElapsedMillis() / 1000
+                        + " s", result));
+            }
+            if (!Files.exists(assemblyJson)) {
+                throw new IOException(withStderr("stepguru exited with code " + result.getExitCode()
+                        + " and produced no assembly.json", result));
+            }
+        }
+        journal.checkpoint(job, ImportCheckpoint.CONVERTED);
+    }
+
+    /**
+     * Stops an import. A waiting import is dropped from the queue; a
+     * running one has its stepguru or amatix process killed and stops at
+     * the end of its current stage.
+     *
+     * @param wait whether to wait up to {@value #CANCEL_WAIT_MS} ms for the
+     *             worker to let go of the job, e.g. before its directory is
+     *             deleted
+     * @return true if the job has stopped, false if it is still running
+     */
+    public boolean cancel(ImportJob job, boolean wait) {
+        if (job.isFinished()) {
+            return true;
+        }
+        System.out.println("Cancelling import " + job);
+        job.cancel();
+        if (scheduler.remove(job)) {
+            cancelled(job);
+            closeJournal(job);
+            saveTimeline(job);
+            job.stopped();
+            reportBatch(job);
+            return true;
+        }
+        if (wait) {
+            try {
+                if (job.awaitStopped(CANCEL_WAIT_MS)) {
+                    return true;
+                }
+                System.out.println("Import " + job.getId() + " is still stopping after " + CANCEL_WAIT_MS + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancels every import into the project and waits for them to stop.
+     * Call it outside a transaction, the wait can take a while.
+     *
+     * @return true if all of them stopped
+     */
+    public boolean cancelForProject(Long projectId) {
+        boolean stopped = true;
+        for (ImportJob job : jobs.values()) {
+            if (projectId != null && projectId.equals(job.getProjectId())) {
+                stopped &= cancel(job, true);
+            }
+        }
+        return stopped;
+    }
+
+    /**
+     * Cancels the import of a CADFile and waits for it to stop. Call it
+     * outside a transaction, the wait can take a while.
+     *
+     * @return true if it stopped
+     */
+    public boolean cancelForCadFile(Long cadfileId) {
+        boolean stopped = true;
+        for (ImportJob job : jobs.values()) {
+            if (cadfileId != null && cadfileId.equals(job.getCadfileId())) {
+                stopped &= cancel(job, true);
+            }
+        }
+        return stopped;
+    }
+
+    /**
+     * Ends a cancelled job and removes what stepguru left behind if it was
+     * cancelled before the conversion finished. Unfinished amatix output is
+     * removed by the {@link SimulationRunner}.
+     */
+    private void cancelled(ImportJob job) {
+        if (job.getState() == ImportState.CONVERTING) {
+            deleteConversionOutput(job, Paths.get(job.getDirectory()));
+        }
+        job.setState(ImportState.CANCELLED);
+        sendUpdate(job, "Import cancelled: " + job.getFileName());
+        broadcast(job, IMPORT_DONE_PREFIX + job.getId());
+    }
+
+    private void deleteConversionOutput(ImportJob job, Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                // The upload itself may well be called out_something.step
+                if (!name.equals(job.getFileName()) && ConversionReuse.isConversionOutput(name)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not clean up " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the STEP pre-scan on the worker for a job that got none with its
+     * upload, such as a resumed one. The job has already started, so the
+     * scan only sizes the collections of the import.
+     */
+    private void scanUpload(ImportJob job) {
+        Path stepFile = Paths.get(job.getDirectory()).resolve(job.getFileName());
+        try {
+            StepScan scan = StepScan.scan(stepFile);
+            job.setStepScan(scan);
+            System.out.println("Pre-scan of " + job.getFileName() + ": " + scan + ", priority " + job.getPriority());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not pre-scan " + stepFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tells the uploader how far the batch of a job that just stopped has
+     * got.
+     */
+    private void reportBatch(ImportJob job) {
+        ImportBatch batch = job.getBatch();
+        if (batch == null) {
+            return;
+        }
+        String summary = batch.getSummary();
+        System.out.println("Import batch " + batch.getId() + ": " + summary);
+        broadcast(job, summary);
+    }
+
+    private void closeJournal(ImportJob job) {
+        try {
+            journal.close(job.getId());
+        } catch (RuntimeException ex) {
+            System.getLogger(ImportService.class.getName()).log(System.Logger.Level.WARNING,
+                "Could not close the journal of " + job, ex);
+        }
+    }
+
+    private void saveTimeline(ImportJob job) {
+        ImportTimeline timeline = job.getTimeline();
+        timeline.setState(job.getState().name());
+        timeline.setError(job.getError());
+        timeline.setFinishedAt(new Date());
+        timeline.setTotalMillis(timeline.getFinishedAt().getTime() - job.getCreated().getTime());
+        try {
+            timelineService.save(timeline);
+        } catch (RuntimeException ex) {
+            System.getLogger(ImportService.class.getName()).log(System.Logger.Level.WARNING,
+                "Could not save the timeline of " + job, ex);
+        }
+    }
+
+    private String toJson(List<SimulationResult> results) {
+        JsonArrayBuilder array = Json.createArrayBuilder();
+        for (SimulationResult result : results) {
+            array.add(Json.createObjectBuilder()
+                    .add("persid", result.getPersid())
+                    .add("millis", result.getElapsedMillis())
+                    .add("exitCode", result.getExitCode())
+                    .add("cached", result.isCached())
+                    .add("stderr", result.getErrorOutput() != null ? result.getErrorOutput() : ""));
+        }
+        return array.build().toString();
+    }
+
+    private void advance(ImportJob job, ImportState state, String message) {
+        job.setState(state);
+        System.out.println("Import " + job.getId() + " -> " + state);
+        sendUpdate(job, message);
+    }
+
+    private ToolResult runStepguru(ImportJob job) throws IOException, InterruptedException {
+        Path directory = Paths.get(job.getDirectory());
+        return toolRunner.convert(directory.resolve(job.getFileName()), directory, line -> {
+            if (line.startsWith("******") || line.contains("info")) {
+                sendUpdate(job, line);
+            }
+        });
+    }
+
+    /**
+     * @return {@code message} followed by the last lines the tool wrote to
+     *         stderr, which usually say why it failed
+     */
+    private static String withStderr(String message, ToolResult result) {
+        if (result.getStderrTail().isEmpty()) {
+            return message;
+        }
+        return message + ":\n" + String.join("\n", result.getStderrTail());
+    }
+
+    /**
+     * Pushes a message to every websocket that was registered by the
+     * uploading session.
+     */
+    private void sendUpdate(ImportJob job, String msg) {
+        job.setMessage(msg);
+        broadcast(job, msg);
+    }
+
+    private void publishTree(ImportJob job, long minIntervalMs) {
+        if (job.treeChanged(minIntervalMs)) {
+            broadcast(job, IMPORT_TREE_PREFIX + job.getId());
+        }
+    }
+
+    private void broadcast(ImportJob job, String msg) {
+        for (String wsid : job.getWsids()) {
+            importUpdate.fire(new ImportUpdate(msg, wsid));
+        }
+    }
+
+    private void purgeFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - FINISHED_JOB_RETENTION_MS;
+        jobs.values().removeIf(j -> j.isFinished() && j.getUpdated().getTime() < cutoff);
+    }
+}
@@ -0,0 +1,23 @@
+package com.materiam.imports;
+
+/**
+ * Stages an import job goes through, in order. A job ends in DONE, FAILED
+ * or CANCELLED.
+ *
+ * @author mufufu
+ */
+public enum ImportState {
+
+    QUEUED,
+    CONVERTING,     // stepguru is generating assembly.json, GLB and PNG files
+    PARSING,        // reading assembly.json
+    PERSISTING,     // writing parts, assemblies and instances to the database
+    SIMULATING,     // amatix bend simulation of folded sheet metal parts
+    DONE,
+    FAILED,
+    CANCELLED;      // stopped by the user or because its project was deleted
+
+    public boolean isFinished() {
+        return this == DONE || this == FAILED || this == CANCELLED;
+    }
+}
@@ -0,0 +1,45 @@
+package com.materiam.imports;
+
+import com.materiam.entities.ImportTimeline;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import java.util.List;
+
+/**
+ * Stores and queries the {@link ImportTimeline} written at the end of every
+ * import.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+@Transactional
+public class ImportTimelineService {
+
+    @PersistenceContext(unitName = "materiam")
+    private EntityManager em;
+
+    public void save(ImportTimeline timeline) {
+        em.persist(timeline);
+    }
+
+    /**
+     * @return the most recent imports across all projects, newest first
+     */
+    public List<ImportTimeline> findRecent(int max) {
+        return em.createQuery("select t from ImportTimeline t order by t.startedAt desc", ImportTimeline.class)
+                .setMaxResults(max)
+                .getResultList();
+    }
+
+    /**
+     * @return the imports of a project, newest first
+     */
+    public List<ImportTimeline> findForProject(Long projectId) {
+        return em.createQuery("select t from ImportTimeline t where t.projectId = :projectId order by t.startedAt desc",
+                ImportTimeline.class)
+                .setParameter("projectId", projectId)
+                .getResultList();
+    }
+}
@@ -0,0 +1,81 @@
+package com.materiam.imports;
+
+import com.materiam.entities.Part;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+/**
+ * Fingerprint of a part that is the same wherever the part shows up: the
+ * SHA-256 of the DATA section of the part STEP stepguru writes, plus the
+ * {@link PartSignature}. The HEADER section is left out because it carries
+ * the file name and a time stamp, and line breaks are ignored because STEP
+ * writers wrap long records differently.
+ *
+ * @author mufufu
+ */
+public final class PartFingerprint {
+
+    private static final byte[] DATA = "DATA;".getBytes(StandardCharsets.US_ASCII);
+
+    private PartFingerprint() {
+    }
+
+    /**
+     * @return the fingerprint of {@code part}, whose STEP file stepguru
+     *         wrote to {@code partStep}
+     */
+    public static String of(Path partStep, Part part) throws IOException {
+        MessageDigest digest = ContentHash.newDigest();
+        updateFromData(digest, partStep);
+        digest.update(PartSignature.of(part).getBytes(StandardCharsets.UTF_8));
+        return ContentHash.toHex(digest.digest());
+    }
+
+    /**
+     * @return the SHA-256 of the DATA section of a STEP file alone, for
+     *         caches that do not know about the part entity
+     */
+    public static String ofStep(Path stepFile) throws IOException {
+        MessageDigest digest = ContentHash.newDigest();
+        updateFromData(digest, stepFile);
+        return ContentHash.toHex(digest.digest());
+    }
+
+    /**
+     * Adds everything after the DATA keyword, without line breaks. A file
+     * without a DATA section is hashed whole.
+     */
+    private static void updateFromData(MessageDigest digest, Path stepFile) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        boolean inData = false;
+        int matched = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(stepFile))) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                int length = 0;
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '\r' || b == '\n') {
+                        continue;
+                    }
+                    if (inData) {
+                        // Compacted in place, length never passes i
+                        buffer[length++] = b;
+                    } else {
+                        matched = b == DATA[matched] ? matched + 1 : (b == DATA[0] ? 1 : 0);
+                        inData = matched == DATA.length;
+                    }
+                }
+                digest.update(buffer, 0, length);
+            }
+        }
+        if (!inData) {
+            digest.update(Files.readAllBytes(stepFile));
+        }
+    }
+}
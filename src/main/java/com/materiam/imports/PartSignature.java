@@ -0,0 +1,59 @@
+package com.materiam.imports;
+
+import com.materiam.entities.Part;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Geometry signature of a part, built from the metrics stepguru reports:
+ * shape, volume, area, thickness, flat pattern and bends. Two parts with
+ * the same signature are taken to be the same part, so manual data and
+ * amatix results can move from one to the other.
+ *
+ * Every value is rounded the way its Part column stores it: volume, area
+ * and thickness to 2 decimals, the section, length and flat pattern
+ * measures to 3. A part signed from stepguru's raw values then has the same
+ * signature as when it is read back from the database.
+ *
+ * @author mufufu
+ */
+public final class PartSignature {
+
+    // Scales of the Part columns
+    private static final int SCALE_2 = 2;
+    private static final int SCALE_3 = 3;
+
+    private PartSignature() {
+    }
+
+    public static String of(Part part) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(part.getShape() != null ? part.getShape().getId() : "-");
+        append(sb, part.getVolume(), SCALE_2);
+        append(sb, part.getTotalArea(), SCALE_2);
+        append(sb, part.getThickness(), SCALE_2);
+        append(sb, part.getFlatObbWidth(), SCALE_3);
+        append(sb, part.getFlatObbLength(), SCALE_3);
+        append(sb, part.getFlatTotalContourLength(), SCALE_3);
+        append(sb, part.getSectionWidth(), SCALE_3);
+        append(sb, part.getSectionHeight(), SCALE_3);
+        append(sb, part.getDiameter(), SCALE_3);
+        append(sb, part.getPartLength(), SCALE_3);
+        sb.append('|').append(part.getBends() != null ? part.getBends() : "-");
+        return sb.toString();
+    }
+
+    /**
+     * Appends {@code value} rounded once to {@code scale}, as the database
+     * rounds it on insert; rounding it again to a coarser scale would let
+     * raw and stored values fall on different sides of a .5.
+     */
+    private static void append(StringBuilder sb, BigDecimal value, int scale) {
+        sb.append('|');
+        if (value == null) {
+            sb.append('-');
+        } else {
+            sb.append(value.setScale(scale, RoundingMode.HALF_UP).toPlainString());
+        }
+    }
+}
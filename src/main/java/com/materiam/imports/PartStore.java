@@ -0,0 +1,193 @@
+package com.materiam.imports;
+
+import com.materiam.config.PathConfig;
+import com.materiam.entities.Part;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Content-addressed store of part artifacts. The GLB, PNG and STEP file
+ * stepguru writes for a part are kept once per {@link PartFingerprint}
+ * under {@code <store>/<first two hex digits>/<fingerprint>/}, and every
+ * CADFile directory holding the same part gets hard links to them instead
+ * of its own copies. The files keep their usual names in the CADFile
+ * directory, so the image and GLB servers do not know about the store.
+ *
+ * An entry is removed at startup once no CADFile links to it any more.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class PartStore {
+
+    // Name in the CADFile directory (prefix, suffix) and name in the store
+    private static final String[][] ARTIFACTS = {
+        {"out_", "_1.glb", "model.glb"},
+        {"out_", "_1.step", "part.step"},
+        {"image_", "_1.png", "image.png"}
+    };
+
+    private Path root;
+
+    @PostConstruct
+    public void init() {
+        root = Paths.get(PathConfig.getPartStorePath());
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            System.err.println("Part store disabled, cannot use " + root + ": " + e.getMessage());
+            root = null;
+        }
+        System.out.println("Part store: " + root);
+    }
+
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        purge();
+    }
+
+    /**
+     * @return the fingerprint of a part stepguru wrote to {@code directory},
+     *         or null if it has no part STEP file
+     */
+    public String fingerprint(Path directory, Part part) {
+        Path step = directory.resolve("out_" + part.getPersid() + "_1.step");
+        if (!Files.exists(step)) {
+            return null;
+        }
+        try {
+            return PartFingerprint.of(step, part);
+        } catch (IOException e) {
+            System.err.println("Could not fingerprint " + step + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Swaps the artifacts of every fingerprinted part in {@code directory}
+     * for links into the store, adding parts the store does not have yet.
+     *
+     * @return the bytes no longer stored twice
+     */
+    public long share(Path directory, Collection<Part> parts) {
+        if (root == null) {
+            return 0;
+        }
+        long saved = 0;
+        for (Part part : parts) {
+            if (part.getFingerprint() == null) {
+                continue;
+            }
+            try {
+                saved += share(directory, part.getPersid(), part.getFingerprint());
+            } catch (IOException | UnsupportedOperationException e) {
+                // The part keeps its own files
+                System.err.println("Could not share part " + part.getPersid() + ": " + e.getMessage());
+            }
+        }
+        return saved;
+    }
+
+    private long share(Path directory, String persid, String fingerprint) throws IOException {
+        Path entry = root.resolve(fingerprint.substring(0, 2)).resolve(fingerprint);
+        if (!Files.isDirectory(entry)) {
+            add(directory, persid, entry);
+            return 0;
+        }
+        long saved = 0;
+        for (String[] artifact : ARTIFACTS) {
+            Path local = directory.resolve(artifact[0] + persid + artifact[1]);
+            Path stored = entry.resolve(artifact[2]);
+            if (!Files.exists(local) || !Files.exists(stored) || Files.isSameFile(local, stored)) {
+                continue;
+            }
+            long size = Files.size(local);
+            Path link = directory.resolve(local.getFileName() + ".link-" + UUID.randomUUID());
+            Files.createLink(link, stored);
+            Files.move(link, local, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            saved += size;
+        }
+        return saved;
+    }
+
+    /**
+     * Adds a part by linking its files into a new entry. The entry is built
+     * under a temporary name and renamed, so a concurrent import never sees
+     * it half written.
+     */
+    private void add(Path directory, String persid, Path entry) throws IOException {
+        Path tmp = entry.resolveSibling(entry.getFileName() + ".tmp-" + UUID.randomUUID());
+        Files.createDirectories(tmp);
+        try {
+            for (String[] artifact : ARTIFACTS) {
+                Path local = directory.resolve(artifact[0] + persid + artifact[1]);
+                if (Files.exists(local)) {
+                    Files.createLink(tmp.resolve(artifact[2]), local);
+                }
+            }
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!Files.isDirectory(entry)) {
+                throw e;
+            }
+            // Another import added the same part first
+        } finally {
+            SimulationCache.deleteTree(tmp);
+        }
+    }
+
+    /**
+     * Deletes the entries no CADFile links to any more, and entries left
+     * half written by a crash.
+     */
+    private void purge() {
+        if (root == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int purged = 0;
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(root)) {
+            for (Path shard : shards) {
+                if (!Files.isDirectory(shard)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(shard)) {
+                    for (Path entry : entries) {
+                        if (entry.getFileName().toString().contains(".tmp-") || !isReferenced(entry)) {
+                            SimulationCache.deleteTree(entry);
+                            purged++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not purge part store: " + e.getMessage());
+        } catch (UnsupportedOperationException e) {
+            // No link counts on this file system, keep everything
+            return;
+        }
+        System.out.println("Part store: purged " + purged + " unused parts in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static boolean isReferenced(Path entry) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+            for (Path file : files) {
+                if ((Integer) Files.getAttribute(file, "unix:nlink") > 1) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
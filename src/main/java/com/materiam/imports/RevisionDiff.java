@@ -0,0 +1,70 @@
+package com.materiam.imports;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What changed between two revisions of a CAD file, by part name. Parts are
+ * matched by persid and {@link PartSignature}:
+ *
+ * <ul>
+ * <li>unchanged: same persid and signature, or a new persid with the
+ *     signature of a part nothing else matched</li>
+ * <li>changed: same persid, different signature</li>
+ * <li>added: no match in the previous revision</li>
+ * <li>removed: parts of the previous revision nothing matched</li>
+ * </ul>
+ *
+ * @author mufufu
+ */
+public class RevisionDiff {
+
+    private final String previousName;
+    private final List<String> unchanged = new ArrayList<>();
+    private final List<String> changed = new ArrayList<>();
+    private final List<String> added = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+
+    RevisionDiff(String previousName) {
+        this.previousName = previousName;
+    }
+
+    public String getPreviousName() { return previousName; }
+    public List<String> getUnchanged() { return unchanged; }
+    public List<String> getChanged() { return changed; }
+    public List<String> getAdded() { return added; }
+    public List<String> getRemoved() { return removed; }
+
+    /**
+     * @return a one line report for the websocket
+     */
+    public String getSummary() {
+        return "Compared with " + previousName + ": " + unchanged.size() + " parts unchanged, "
+                + changed.size() + " changed, " + added.size() + " new, " + removed.size() + " removed";
+    }
+
+    public String toJson() {
+        return Json.createObjectBuilder()
+                .add("previous", previousName)
+                .add("unchanged", toArray(unchanged))
+                .add("changed", toArray(changed))
+                .add("added", toArray(added))
+                .add("removed", toArray(removed))
+                .build().toString();
+    }
+
+    private static JsonArrayBuilder toArray(List<String> names) {
+        JsonArrayBuilder array = Json.createArrayBuilder();
+        for (String name : names) {
+            array.add(name != null ? name : "");
+        }
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        return "RevisionDiff[" + getSummary() + "]";
+    }
+}
@@ -0,0 +1,299 @@
+package com.materiam.imports;
+
+import com.materiam.config.ImportConfig;
+import com.materiam.config.PathConfig;
+import com.materiam.tools.CadToolRunner;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Disk cache of amatix output directories. Standard parts such as brackets
+ * show up in many projects with identical geometry, so a simulation is
+ * keyed by the DATA section of the part STEP file (see
+ * {@link PartFingerprint}), the contents of the amatix tool directory and
+ * the amatix arguments. Any of those changing gives a new key. Entries are
+ * hard linked into the projects that use them.
+ *
+ * Each entry is a directory named after its key. The modification time of
+ * the entry is refreshed on every hit and the least recently used entries
+ * are deleted once the cache grows past materiam.simulation.cache.maxmb.
+ * Only files no project links any more count against that limit, as only
+ * deleting those frees disk space. They become cache-only when projects
+ * are deleted, so the size is measured on disk again from time to time.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class SimulationCache {
+
+    @Inject
+    private CadToolRunner toolRunner;
+
+    // How often the cache-only size is measured on disk again
+    private static final long MEASURE_INTERVAL_MS = 10 * 60 * 1000;
+
+    private Path root;
+    private long maxBytes;
+    // Bytes only the cache holds, see unsharedSizeOf
+    private final AtomicLong size = new AtomicLong();
+    private volatile long measured;
+
+    // Hash of the tool directory, recomputed when its listing changes
+    private volatile String toolStamp;
+    private volatile String toolHash;
+
+    @PostConstruct
+    public void init() {
+        root = Paths.get(PathConfig.getSimulationCachePath());
+        maxBytes = ImportConfig.getSimulationCacheMaxBytes();
+        try {
+            Files.createDirectories(root);
+            size.set(unsharedSizeOf(root));
+            measured = System.currentTimeMillis();
+        } catch (IOException e) {
+            System.err.println("Simulation cache disabled, cannot use " + root + ": " + e.getMessage());
+            root = null;
+        }
+        System.out.println("Simulation cache: " + root + " (" + (size.get() / (1024 * 1024)) + " of "
+                + (maxBytes / (1024 * 1024)) + " MB used)");
+    }
+
+    /**
+     * @return the cache key for simulating {@code stepFile} with the current
+     *         tools and arguments, or null if the cache cannot be used
+     */
+    public String key(Path stepFile) {
+        if (root == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = ContentHash.newDigest();
+            digest.update(PartFingerprint.ofStep(stepFile).getBytes(StandardCharsets.UTF_8));
+            digest.update(toolHash().getBytes(StandardCharsets.UTF_8));
+            digest.update(toolRunner.getSimulationOptions().getBytes(StandardCharsets.UTF_8));
+            return ContentHash.toHex(digest.digest());
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Cannot compute simulation cache key for " + stepFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Copies a cached amatix output into {@code outDir}.
+     *
+     * @return false on a cache miss
+     */
+    public boolean restore(String key, Path outDir) {
+        Path entry = root.resolve(key);
+        if (!Files.exists(entry.resolve("simulation.json"))) {
+            return false;
+        }
+        try {
+            linkTree(entry, outDir);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            // Most likely evicted while copying; amatix just runs again
+            System.err.println("Could not restore cached simulation " + key + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Adds the amatix output in {@code outDir} to the cache. The entry is
+     * written under a temporary name and renamed, so a concurrent
+     * {@link #restore} never sees a partial entry.
+     */
+    public void store(String key, Path outDir) {
+        Path entry = root.resolve(key);
+        if (Files.exists(entry)) {
+            return;
+        }
+        Path tmp = root.resolve(key + ".tmp-" + UUID.randomUUID());
+        try {
+            linkTree(outDir, tmp);
+            long added = unsharedSizeOf(tmp);
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            size.addAndGet(added);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not cache simulation " + key + ": " + e.getMessage());
+            deleteTree(tmp);
+            return;
+        }
+        if (size.get() > maxBytes || System.currentTimeMillis() - measured > MEASURE_INTERVAL_MS) {
+            evict();
+        }
+    }
+
+    /**
+     * Measures the cache-only bytes again and deletes the least recently
+     * used entries holding such bytes until the cache fits. Entries whose
+     * files are all still linked into projects are kept, deleting them
+     * would free nothing.
+     */
+    private synchronized void evict() {
+        size.set(unsharedSizeOf(root));
+        measured = System.currentTimeMillis();
+        if (size.get() <= maxBytes) {
+            return;
+        }
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> list = Files.list(root)) {
+            list.filter(p -> !p.getFileName().toString().contains(".tmp-")).forEach(entries::add);
+        } catch (IOException e) {
+            System.err.println("Could not list simulation cache: " + e.getMessage());
+            return;
+        }
+        entries.sort(Comparator.comparingLong(SimulationCache::lastModified));
+        for (Path entry : entries) {
+            if (size.get() <= maxBytes) {
+                break;
+            }
+            long freed = unsharedSizeOf(entry);
+            if (freed == 0) {
+                continue;
+            }
+            deleteTree(entry);
+            size.addAndGet(-freed);
+            System.out.println("Evicted cached simulation " + entry.getFileName());
+        }
+    }
+
+    private String toolHash() throws IOException {
+        Path toolDir = toolRunner.getSimulationToolDir();
+        if (toolDir == null) {
+            return "";
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(toolDir)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        // Names, sizes and dates are enough to notice a changed tool set
+        StringBuilder stamp = new StringBuilder();
+        for (Path file : files) {
+            stamp.append(toolDir.relativize(file)).append(':').append(Files.size(file)).append(':')
+                 .append(Files.getLastModifiedTime(file).toMillis()).append('\n');
+        }
+        String current = stamp.toString();
+        if (current.equals(toolStamp)) {
+            return toolHash;
+        }
+        MessageDigest digest = ContentHash.newDigest();
+        for (Path file : files) {
+            digest.update(toolDir.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            updateFromFile(digest, file);
+        }
+        toolHash = ContentHash.toHex(digest.digest());
+        toolStamp = current;
+        return toolHash;
+    }
+
+    private static void updateFromFile(MessageDigest digest, Path file) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Hard links the files of {@code source} into {@code target}, or copies
+     * them where the file system cannot link. Every project that restored
+     * a simulation shares its files with the cache entry, so nothing may
+     * write to them in place afterwards.
+     */
+    static void linkTree(Path source, Path target) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(source)) {
+            paths = walk.collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Path dest = target.resolve(source.relativize(path).toString());
+            if (Files.isDirectory(path)) {
+                Files.createDirectories(dest);
+            } else {
+                Files.deleteIfExists(dest);
+                try {
+                    Files.createLink(dest, path);
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(path, dest);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the size of the files under {@code dir} that no project links
+     *         to, which is what deleting them gives back
+     */
+    private static long unsharedSizeOf(Path dir) {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile).mapToLong(p -> {
+                try {
+                    return linkCount(p) > 1 ? 0 : Files.size(p);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the number of hard links to {@code file}, 1 where the file
+     *         system does not tell
+     */
+    private static int linkCount(Path file) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    static void deleteTree(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    System.err.println("Could not delete " + p + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not delete " + dir + ": " + e.getMessage());
+        }
+    }
+}
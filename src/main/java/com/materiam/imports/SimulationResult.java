@@ -0,0 +1,158 @@
+package com.materiam.imports;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Outcome of the amatix run for one part, read from its simulation.json.
+ * Each result is written to the database as soon as its run ends, see
+ * {@link AssemblyImporter#saveSimulationResult(SimulationResult)}.
+ *
+ * @author mufufu
+ */
+public class SimulationResult {
+
+    private final Long partId;
+    private final String persid;
+    private final String partName;
+    private int exitCode = -1;
+    private long elapsedMillis;
+    private boolean parsed;
+    private boolean cached;
+    private boolean hasCollisions;
+    private boolean hasWarnings;
+    private String simulationWarnings;
+    private String errorOutput;
+
+    public SimulationResult(Long partId, String persid, String partName) {
+        this.partId = partId;
+        this.persid = persid;
+        this.partName = partName;
+    }
+
+    /**
+     * Parse simulation.json to extract collision and warning information.
+     * Leaves the result unparsed if the file is missing or unreadable.
+     */
+    public void read(Path outDir) {
+        Path simulationFile = outDir.resolve("simulation.json");
+
+        if (!Files.exists(simulationFile)) {
+            System.out.println("simulation.json not found at: " + simulationFile);
+            return;
+        }
+
+        // simulation.json carries the full bend sequence with tool geometry;
+        // only the warnings and the collision lists are needed here
+        try (Reader reader = Files.newBufferedReader(simulationFile);
+             JsonParser parser = Json.createParser(reader)) {
+            if (parser.next() != Event.START_OBJECT) {
+                System.err.println("Error parsing simulation.json: not an object");
+                return;
+            }
+            hasCollisions = false;
+            Event event;
+            while ((event = parser.next()) != Event.END_OBJECT) {
+                String key = parser.getString();
+                event = parser.next();
+                if (key.equals("warnings") && event == Event.START_ARRAY) {
+                    JsonArray warnings = parser.getArray();
+                    hasWarnings = !warnings.isEmpty();
+                    if (hasWarnings) {
+                        // Store warnings as JSON string
+                        simulationWarnings = warnings.toString();
+                        System.out.println("Part " + partName + " has " + warnings.size() + " warnings");
+                    }
+                } else if (key.equals("sequence") && event == Event.START_ARRAY && !hasCollisions) {
+                    readSequence(parser);
+                } else {
+                    AssemblyJsonParser.skip(parser, event);
+                }
+            }
+            parsed = true;
+
+        } catch (IOException e) {
+            System.err.println("Error reading simulation.json: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Error parsing simulation.json: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Check for collisions in any bend sequence step. Stops looking at the
+     * first step that has collisions and skips the rest of the array.
+     */
+    private void readSequence(JsonParser parser) {
+        Event event;
+        while ((event = parser.next()) != Event.END_ARRAY) {
+            if (event != Event.START_OBJECT) {
+                AssemblyJsonParser.skip(parser, event);
+                continue;
+            }
+            int stepIndex = -1;
+            JsonArray collisions = null;
+            while ((event = parser.next()) != Event.END_OBJECT) {
+                String key = parser.getString();
+                event = parser.next();
+                if (key.equals("stepIndex") && event == Event.VALUE_NUMBER) {
+                    stepIndex = parser.getInt();
+                } else if (key.equals("collisions") && event == Event.START_ARRAY) {
+                    collisions = parser.getArray();
+                } else {
+                    AssemblyJsonParser.skip(parser, event);
+                }
+            }
+            if (collisions != null && !collisions.isEmpty()) {
+                hasCollisions = true;
+                System.out.println("Part " + partName + " has collisions at step " +
+                    stepIndex + ": " + collisions.toString());
+                parser.skipArray();
+                return;
+            }
+        }
+    }
+
+    public Long getPartId() { return partId; }
+    public String getPersid() { return persid; }
+    public String getPartName() { return partName; }
+
+    public int getExitCode() { return exitCode; }
+
+    /**
+     * @return true if amatix ran to completion or its output came from the
+     *         cache; false if it failed, timed out or was skipped
+     */
+    public boolean isSuccessful() { return exitCode == 0; }
+    void setExitCode(int exitCode) { this.exitCode = exitCode; }
+
+    /**
+     * @return the last lines amatix wrote to stderr when it failed or timed
+     *         out, otherwise null
+     */
+    public String getErrorOutput() { return errorOutput; }
+    void setErrorOutput(String errorOutput) { this.errorOutput = errorOutput; }
+
+    public long getElapsedMillis() { return elapsedMillis; }
+    void setElapsedMillis(long elapsedMillis) { this.elapsedMillis = elapsedMillis; }
+
+    /**
+     * @return true if the output was taken from the {@link SimulationCache}
+     */
+    public boolean isCached() { return cached; }
+    void setCached(boolean cached) { this.cached = cached; }
+
+    /**
+     * @return true if simulation.json was found and parsed
+     */
+    public boolean isParsed() { return parsed; }
+    public boolean isHasCollisions() { return hasCollisions; }
+    public boolean isHasWarnings() { return hasWarnings; }
+    public String getSimulationWarnings() { return simulationWarnings; }
+}
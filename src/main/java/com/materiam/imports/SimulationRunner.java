@@ -0,0 +1,287 @@
+package com.materiam.imports;
+
+import com.materiam.config.ImportConfig;
+import com.materiam.entities.Part;
+import com.materiam.tools.CadToolRunner;
+import com.materiam.tools.ToolResult;
+import events.SimulationCompleted;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs amatix bend simulations for the folded sheet metal parts of an import
+ * in parallel. The number of amatix processes running at once is capped
+ * across all imports by materiam.import.simulation.workers.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class SimulationRunner {
+
+    // amatix output of a part goes to <persid>-cam_simulation in the CADFile directory
+    static final String SIMULATION_DIR_SUFFIX = "-cam_simulation";
+
+    // Time a cancel waits for killed simulations to clean up their output
+    private static final long CANCEL_WAIT_MS = 15000;
+
+    @Resource(lookup = "java:app/concurrent/SimulationExecutor")
+    private ManagedExecutorService executor;
+
+    @Inject
+    private Event<SimulationCompleted> simulationCompleted;
+
+    @Inject
+    private SimulationCache simulationCache;
+
+    @Inject
+    private CadToolRunner toolRunner;
+
+    @Inject
+    private AssemblyImporter assemblyImporter;
+
+    private Semaphore workers;
+
+    @PostConstruct
+    public void init() {
+        int count = ImportConfig.getSimulationWorkers();
+        workers = new Semaphore(count, true);
+        System.out.println("Amatix simulation workers: " + count);
+    }
+
+    /**
+     * Simulates every part and returns once all of them are finished. Results
+     * are read as each simulation completes, saved and reported through
+     * {@code progress} and a {@link SimulationCompleted} event.
+     *
+     * A cancel of the job interrupts the calling thread only while it waits
+     * for a worker or a simulation, never while a result is saved.
+     *
+     * @throws InterruptedException if the import was cancelled; simulations
+     *         that have not started are dropped and running ones are killed
+     */
+    public List<SimulationResult> simulate(ImportJob job, List<Part> parts, Consumer<String> progress)
+            throws InterruptedException {
+        CompletionService<SimulationResult> completion = new ExecutorCompletionService<>(executor);
+        List<SimulationResult> results = new ArrayList<>();
+        List<Task> tasks = new ArrayList<>();
+        Iterator<Part> pending = parts.iterator();
+
+        try {
+            while (results.size() < parts.size()) {
+                // Keep as many simulations running as there are free workers
+                while (pending.hasNext() && workers.tryAcquire()) {
+                    tasks.add(submit(completion, job, pending.next(), progress));
+                }
+                if (tasks.size() == results.size()) {
+                    // Nothing of ours is running; wait for a worker used by another import
+                    job.enterInterruptible();
+                    try {
+                        workers.acquire();
+                    } finally {
+                        job.leaveInterruptible();
+                    }
+                    tasks.add(submit(completion, job, pending.next(), progress));
+                    continue;
+                }
+
+                Future<SimulationResult> done;
+                job.enterInterruptible();
+                try {
+                    done = completion.take();
+                } finally {
+                    job.leaveInterruptible();
+                }
+                SimulationResult result;
+                try {
+                    result = done.get();
+                } catch (ExecutionException ex) {
+                    System.getLogger(SimulationRunner.class.getName()).log(System.Logger.Level.ERROR,
+                        "Amatix task failed", ex.getCause());
+                    results.add(null);
+                    continue;
+                }
+                results.add(result);
+                report(job, result, progress);
+            }
+        } catch (InterruptedException ex) {
+            for (Task task : tasks) {
+                task.cancel();
+            }
+            // The job only counts as stopped once no amatix writes to its directory
+            long deadline = System.currentTimeMillis() + CANCEL_WAIT_MS;
+            for (Task task : tasks) {
+                if (!task.awaitFinished(deadline - System.currentTimeMillis())) {
+                    System.out.println("Amatix of " + job + " still stopping after " + CANCEL_WAIT_MS + " ms");
+                    break;
+                }
+            }
+            throw ex;
+        }
+
+        results.removeIf(r -> r == null);
+        return results;
+    }
+
+    /**
+     * A submitted simulation holding one worker permit. Whoever claims the
+     * task first, the task itself when it starts or {@link #cancel()}
+     * before that, gives the permit back.
+     */
+    private class Task {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private Future<SimulationResult> future;
+
+        boolean start() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void cancel() {
+            if (claimed.compareAndSet(false, true)) {
+                workers.release();
+                finished.countDown();
+            }
+            // Interrupting a running simulation kills amatix
+            future.cancel(true);
+        }
+
+        /**
+         * @return false if the task was still running after {@code millis}
+         */
+        boolean awaitFinished(long millis) {
+            try {
+                return finished.await(Math.max(0, millis), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private Task submit(CompletionService<SimulationResult> completion, ImportJob job, Part part,
+                        Consumer<String> progress) {
+        Task task = new Task();
+        task.future = completion.submit(() -> {
+            if (!task.start()) {
+                return null;
+            }
+            try {
+                return runAmatix(job.getDirectory(), part, progress);
+            } finally {
+                workers.release();
+                task.finished.countDown();
+            }
+        });
+        return task;
+    }
+
+    private SimulationResult runAmatix(String filedest, Part part, Consumer<String> progress)
+            throws IOException, InterruptedException {
+        String persid = part.getPersid();
+        SimulationResult result = new SimulationResult(part.getId(), persid, part.getName());
+        long start = System.currentTimeMillis();
+
+        String stepFile = filedest + "out_" + persid + "_1.step";
+        String outDir = filedest + persid + SIMULATION_DIR_SUFFIX;
+
+        // Check if STEP file exists
+        if (!Files.exists(Paths.get(stepFile))) {
+            System.out.println("Amatix: STEP file not found: " + stepFile);
+            progress.accept("Skipping bend simulation - STEP file not found for " + persid);
+            return result;
+        }
+
+        // Create output directory if it doesn't exist
+        Path outPath = Paths.get(outDir);
+        if (!Files.exists(outPath)) {
+            Files.createDirectories(outPath);
+        }
+
+        String cacheKey = simulationCache.key(Paths.get(stepFile));
+        if (cacheKey != null && simulationCache.restore(cacheKey, outPath)) {
+            System.out.println("Amatix: reusing cached simulation " + cacheKey + " for " + persid);
+            progress.accept("Reusing earlier bend simulation for " + persid);
+            result.setExitCode(0);
+            result.setCached(true);
+            result.read(outPath);
+            result.setElapsedMillis(System.currentTimeMillis() - start);
+            return result;
+        }
+
+        // Earlier output may be links shared with the cache, amatix must not write through them
+        SimulationCache.deleteTree(outPath);
+        Files.createDirectories(outPath);
+
+        System.out.println("* = - = * = - = Executing Amatix for " + persid + " * = - = * = - = *");
+        progress.accept("Running bend simulation for " + persid + "...");
+
+        ToolResult run;
+        try {
+            run = toolRunner.simulate(Paths.get(stepFile), outPath, line -> {
+                if (line.contains("info") || line.contains("error") || line.contains("warning")) {
+                    progress.accept(line);
+                }
+            });
+        } catch (InterruptedException ex) {
+            // Cancelled; amatix has been killed and has exited, drop what it wrote so far
+            SimulationCache.deleteTree(outPath);
+            throw ex;
+        }
+        if (run.isTimedOut()) {
+            progress.accept("Bend simulation timed out for " + persid);
+        }
+        result.setExitCode(run.getExitCode());
+        if (run.isSuccess()) {
+            // Parse simulation.json to check for collisions and warnings
+            result.read(outPath);
+            if (cacheKey != null && result.isParsed()) {
+                simulationCache.store(cacheKey, outPath);
+            }
+        } else {
+            result.setErrorOutput(String.join("\n", run.getStderrTail()));
+        }
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private void report(ImportJob job, SimulationResult result, Consumer<String> progress) {
+        String persid = result.getPersid();
+        if (result.getExitCode() == 0) {
+            System.out.println("Amatix completed successfully for " + persid + " in " + result.getElapsedMillis() + " ms"
+                    + (result.isCached() ? " (cached)" : ""));
+            progress.accept("Bend simulation complete for " + persid);
+            if (result.isHasCollisions()) {
+                progress.accept("WARNING: Part " + result.getPartName() + " has collisions - infeasible!");
+            } else if (result.isHasWarnings()) {
+                progress.accept("Part " + result.getPartName() + " has manufacturing warnings");
+            }
+        } else if (result.getErrorOutput() != null) {
+            System.out.println("Amatix failed with exit code " + result.getExitCode() + " for " + persid
+                    + (result.getErrorOutput().isEmpty() ? "" : ":\n" + result.getErrorOutput()));
+            progress.accept("Bend simulation failed for " + persid);
+        }
+        assemblyImporter.saveSimulationResult(result);
+        simulationCompleted.fire(new SimulationCompleted(job.getId(), result.getPartId(), persid,
+                result.getExitCode(), result.getElapsedMillis(), result.isHasCollisions(), result.isHasWarnings()));
+    }
+}
@@ -0,0 +1,365 @@
+package com.materiam.imports;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Counts the entities of a STEP file without any geometry work, to estimate
+ * what the import will cost before stepguru runs. The bytes go once through
+ * a small state machine that only looks at entity names, either fed by
+ * {@link UploadWriter} while the upload is written or from the memory mapped
+ * file; on a warm page cache this runs at several hundred MB/s.
+ *
+ * Counted are all entity instances, PRODUCT (roughly one per part or
+ * assembly definition), NEXT_ASSEMBLY_USAGE_OCCURRENCE (one per instance in
+ * the tree) and B-spline surfaces, which dominate stepguru's time on
+ * free-form geometry.
+ *
+ * @author mufufu
+ */
+public class StepScan {
+
+    // Mapped in windows so files over 2 GB work too
+    private static final long WINDOW = 1L << 30;
+    private static final int MAX_KEYWORD = 64;
+    private static final int CHUNK = 64 * 1024;
+
+    private static final byte[] PRODUCT = ascii("PRODUCT");
+    private static final byte[] NAUO = ascii("NEXT_ASSEMBLY_USAGE_OCCURRENCE");
+    private static final byte[] B_SPLINE_SURFACE = ascii("B_SPLINE_SURFACE");
+    private static final byte[] RATIONAL_B_SPLINE_SURFACE = ascii("RATIONAL_B_SPLINE_SURFACE");
+
+    // Where the reader is within a statement
+    private static final int BETWEEN = 0;       // before the next statement
+    private static final int STATEMENT = 1;     // not an entity instance, or past its name
+    private static final int ID = 2;            // #123
+    private static final int EQUALS = 3;        // before the '=' after the id
+    private static final int VALUE = 4;         // before the entity name or '(' of a complex entity
+    private static final int NAME = 5;          // entity name
+    private static final int COMPLEX = 6;       // between the parts of a complex entity
+    private static final int COMPLEX_NAME = 7;  // name of a part of a complex entity
+    private static final int COMPLEX_ARGS = 8;  // arguments of a part of a complex entity
+
+    private long bytes;
+    private long entities;
+    private long products;
+    private long occurrences;
+    private long bsplineSurfaces;
+    private long nanos;
+
+    // Reader state, kept across buffers
+    private int state = BETWEEN;
+    private int depth;
+    private boolean inString;
+    private boolean inComment;
+    private byte previous;
+    private final byte[] keyword = new byte[MAX_KEYWORD];
+    private int keywordLength;
+    private boolean bsplineInEntity;
+
+    StepScan() {
+    }
+
+    public static StepScan scan(Path stepFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(stepFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            StepScan scan = new StepScan();
+            for (long position = 0; position < size; position += WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(WINDOW, size - position));
+                scan.update(window);
+            }
+            return scan;
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of {@code buffer} as the next part of the
+     * file.
+     */
+    void update(ByteBuffer buffer) {
+        long start = System.nanoTime();
+        byte[] chunk = new byte[Math.min(CHUNK, buffer.remaining())];
+        bytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            int length = Math.min(CHUNK, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            read(chunk, length);
+        }
+        nanos += System.nanoTime() - start;
+    }
+
+    public long getBytes() { return bytes; }
+
+    /**
+     * @return the number of entity instances in the DATA section
+     */
+    public long getEntities() { return entities; }
+
+    /**
+     * @return the number of PRODUCT entities, about one per part and
+     *         assembly definition
+     */
+    public long getProducts() { return products; }
+
+    /**
+     * @return the number of NEXT_ASSEMBLY_USAGE_OCCURRENCE entities, about
+     *         one per instance in the assembly tree
+     */
+    public long getOccurrences() { return occurrences; }
+    public long getBsplineSurfaces() { return bsplineSurfaces; }
+
+    /**
+     * @return the time spent reading, without the time waiting for the
+     *         upload when fed by {@link UploadWriter}
+     */
+    public long getMillis() { return nanos / 1_000_000; }
+
+    /**
+     * @return a guess of the rows the import will write: one per definition
+     *         and one per instance
+     */
+    public long getEstimatedRows() {
+        return products + occurrences;
+    }
+
+    @Override
+    public String toString() {
+        return "StepScan[" + bytes / (1024 * 1024) + " MB, " + entities + " entities, " + products + " products, "
+                + occurrences + " occurrences, " + bsplineSurfaces + " B-spline surfaces in " + getMillis() + " ms]";
+    }
+
+    private void read(byte[] chunk, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = chunk[i];
+
+            // Most bytes are arguments nobody looks at; skip them quickly
+            if (state == STATEMENT && !inString && !inComment) {
+                while (b != ';' && b != '\'' && b != '/' && ++i < length) {
+                    b = chunk[i];
+                }
+                if (i == length) {
+                    previous = 0;
+                    break;
+                }
+            } else if (inString) {
+                while (b != '\'' && ++i < length) {
+                    b = chunk[i];
+                }
+                if (i == length) {
+                    break;
+                }
+            } else if (state == ID || state == NAME) {
+                // Ids and entity names are not interesting byte by byte either
+                while (isNameChar(b)) {
+                    if (state == NAME) {
+                        appendKeyword(b);
+                    }
+                    if (++i == length) {
+                        break;
+                    }
+                    b = chunk[i];
+                }
+                if (i == length) {
+                    previous = 0;
+                    break;
+                }
+            }
+
+            byte prev = previous;
+            previous = b;
+
+            if (inComment) {
+                if (prev == '*' && b == '/') {
+                    inComment = false;
+                    previous = 0;
+                }
+                continue;
+            }
+            if (inString) {
+                // A quote inside a string is written twice, which just
+                // closes and reopens it here
+                inString = false;
+                continue;
+            }
+            if (prev == '/' && b == '*') {
+                inComment = true;
+                previous = 0;
+                continue;
+            }
+            if (b == '/') {
+                // Only ever starts a comment outside of strings
+                continue;
+            }
+            if (b == '\'') {
+                inString = true;
+                if (state != COMPLEX_ARGS) {
+                    state = STATEMENT;
+                }
+                continue;
+            }
+            accept(b);
+        }
+    }
+
+    private void accept(byte b) {
+        switch (state) {
+            case BETWEEN:
+                if (b == '#') {
+                    state = ID;
+                } else if (!isSpace(b)) {
+                    state = b == ';' ? BETWEEN : STATEMENT;
+                }
+                break;
+            case STATEMENT:
+                if (b == ';') {
+                    state = BETWEEN;
+                }
+                break;
+            case ID:
+                if (b >= '0' && b <= '9') {
+                    break;
+                }
+                state = EQUALS;
+                accept(b);
+                break;
+            case EQUALS:
+                if (b == '=') {
+                    state = VALUE;
+                } else if (!isSpace(b)) {
+                    state = STATEMENT;
+                    accept(b);
+                }
+                break;
+            case VALUE:
+                if (isNameChar(b)) {
+                    entities++;
+                    keywordLength = 0;
+                    state = NAME;
+                    accept(b);
+                } else if (b == '(') {
+                    entities++;
+                    bsplineInEntity = false;
+                    depth = 1;
+                    state = COMPLEX;
+                } else if (!isSpace(b)) {
+                    state = STATEMENT;
+                    accept(b);
+                }
+                break;
+            case NAME:
+                if (isNameChar(b)) {
+                    appendKeyword(b);
+                    break;
+                }
+                if (matches(PRODUCT)) {
+                    products++;
+                } else if (matches(NAUO)) {
+                    occurrences++;
+                } else if (isBsplineSurface()) {
+                    bsplineSurfaces++;
+                }
+                state = STATEMENT;
+                accept(b);
+                break;
+            case COMPLEX:
+                if (isNameChar(b)) {
+                    keywordLength = 0;
+                    state = COMPLEX_NAME;
+                    accept(b);
+                } else if (b == ')') {
+                    state = STATEMENT;
+                } else if (b == ';') {
+                    state = BETWEEN;
+                }
+                break;
+            case COMPLEX_NAME:
+                if (isNameChar(b)) {
+                    appendKeyword(b);
+                    break;
+                }
+                if (!bsplineInEntity && isBsplineSurface()) {
+                    bsplineInEntity = true;
+                    bsplineSurfaces++;
+                }
+                state = COMPLEX_ARGS;
+                accept(b);
+                break;
+            case COMPLEX_ARGS:
+                if (b == '(') {
+                    depth++;
+                } else if (b == ')') {
+                    depth--;
+                    if (depth == 1) {
+                        state = COMPLEX;
+                    } else if (depth == 0) {
+                        state = STATEMENT;
+                    }
+                } else if (b == ';') {
+                    state = BETWEEN;
+                }
+                break;
+            default:
+                state = STATEMENT;
+        }
+    }
+
+    private void appendKeyword(byte b) {
+        if (keywordLength < MAX_KEYWORD) {
+            keyword[keywordLength] = b;
+        }
+        keywordLength++;
+    }
+
+    private boolean matches(byte[] name) {
+        if (keywordLength != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (keyword[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * B_SPLINE_SURFACE, B_SPLINE_SURFACE_WITH_KNOTS or
+     * RATIONAL_B_SPLINE_SURFACE.
+     */
+    private boolean isBsplineSurface() {
+        if (keywordLength > MAX_KEYWORD) {
+            return false;
+        }
+        return startsWith(B_SPLINE_SURFACE) || matches(RATIONAL_B_SPLINE_SURFACE);
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (keywordLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (keyword[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameChar(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_';
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,81 @@
+package com.materiam.imports;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the CAD files out of an uploaded zip archive. Entries are handed
+ * over one at a time as a stream while the archive itself is still being
+ * received, so neither the archive nor its entries are extracted to memory
+ * or to a temporary directory first.
+ *
+ * @author mufufu
+ */
+public final class UploadArchive {
+
+    private UploadArchive() {
+    }
+
+    /**
+     * Receives the CAD files of an archive.
+     */
+    public interface EntryHandler {
+
+        /**
+         * @param fileName the name of the entry without its directories
+         * @param body     the uncompressed entry, read until end of stream
+         */
+        void store(String fileName, ReadableByteChannel body) throws IOException;
+    }
+
+    public static boolean isArchive(String fileName) {
+        return fileName != null && fileName.toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    public static boolean isCadFile(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        return name.endsWith(".step") || name.endsWith(".stp");
+    }
+
+    /**
+     * Passes every STEP file in {@code in} to {@code handler}. Directories,
+     * other files and the resource forks macOS adds to archives are
+     * skipped.
+     *
+     * @return the number of files handed to {@code handler}, 0 if
+     *         {@code in} is not a zip archive
+     * @throws IOException if the archive has more than {@code maxEntries}
+     *         CAD files or is damaged
+     */
+    public static int extract(InputStream in, int maxEntries, EntryHandler handler) throws IOException {
+        int count = 0;
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in))) {
+            ReadableByteChannel channel = Channels.newChannel(zip);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = baseName(entry.getName());
+                if (entry.isDirectory() || entry.getName().startsWith("__MACOSX/") || name.startsWith(".")
+                        || !isCadFile(name)) {
+                    continue;
+                }
+                if (++count > maxEntries) {
+                    throw new IOException("Archive has more than " + maxEntries + " CAD files");
+                }
+                handler.store(name, channel);
+                zip.closeEntry();
+            }
+        }
+        return count;
+    }
+
+    private static String baseName(String entryName) {
+        String name = entryName.replace('\\', '/');
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,87 @@
+package com.materiam.imports;
+
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.UUID;
+
+/**
+ * A resumable upload in progress. The file is split into fixed-size chunks
+ * that may arrive in any order and more than once; the session remembers
+ * which ones have been written so a client that lost its connection only
+ * sends the missing ones again.
+ *
+ * @author mufufu
+ */
+public class UploadSession {
+
+    private final String id;
+    private final String fileName;
+    private final long size;
+    private final int chunkSize;
+    private final String expectedHash;
+    private final Path file;
+    private final BitSet received;
+    private final long created;
+    private volatile long updated;
+
+    UploadSession(String fileName, long size, int chunkSize, String expectedHash, Path staging) {
+        this.id = UUID.randomUUID().toString();
+        this.fileName = fileName;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.expectedHash = expectedHash;
+        this.file = staging.resolve(id);
+        this.received = new BitSet(getChunkCount());
+        this.created = System.currentTimeMillis();
+        this.updated = created;
+    }
+
+    public String getId() { return id; }
+    public String getFileName() { return fileName; }
+    public long getSize() { return size; }
+    public int getChunkSize() { return chunkSize; }
+
+    /**
+     * @return the SHA-256 announced by the client, or null
+     */
+    public String getExpectedHash() { return expectedHash; }
+    Path getFile() { return file; }
+    public long getCreated() { return created; }
+    long getUpdated() { return updated; }
+
+    public int getChunkCount() {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    public long getOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    /**
+     * @return the number of bytes in chunk {@code index}; only the last
+     *         chunk may be shorter than the chunk size
+     */
+    public long getLength(int index) {
+        return Math.min(chunkSize, size - getOffset(index));
+    }
+
+    synchronized void markReceived(int index) {
+        received.set(index);
+        updated = System.currentTimeMillis();
+    }
+
+    public synchronized boolean isReceived(int index) {
+        return received.get(index);
+    }
+
+    public synchronized boolean isComplete() {
+        return received.cardinality() == getChunkCount();
+    }
+
+    /**
+     * @return a copy of the chunks written so far
+     */
+    public synchronized BitSet getReceived() {
+        return (BitSet) received.clone();
+    }
+}
@@ -0,0 +1,157 @@
+package com.materiam.imports;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes an uploaded CAD file straight to its CADFile directory. The body is
+ * moved through a direct buffer into a FileChannel, hashed and pre-scanned
+ * on the way, so the file is read once and never held on the heap.
+ *
+ * @author mufufu
+ */
+public final class UploadWriter {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // Direct buffers are expensive to allocate, keep a few around
+    private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(8);
+
+    private UploadWriter() {
+    }
+
+    /**
+     * Size, SHA-256 and {@link StepScan} of a stored upload.
+     */
+    public static class Stored {
+        private final long size;
+        private final String contentHash;
+        private final StepScan stepScan;
+
+        Stored(long size, String contentHash, StepScan stepScan) {
+            this.size = size;
+            this.contentHash = contentHash;
+            this.stepScan = stepScan;
+        }
+
+        public long getSize() { return size; }
+        public String getContentHash() { return contentHash; }
+        public StepScan getStepScan() { return stepScan; }
+    }
+
+    /**
+     * Thrown once an upload goes past the configured maximum. The partial
+     * file has already been deleted.
+     */
+    public static class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public TooLargeException(long maxBytes) {
+            super("Upload exceeds the maximum size of " + maxBytes + " bytes");
+        }
+    }
+
+    /**
+     * Copies {@code in} to a new file at {@code target}. The target is removed
+     * again if the copy fails or the upload is larger than {@code maxBytes}.
+     */
+    public static Stored write(ReadableByteChannel in, Path target, long maxBytes) throws IOException {
+        MessageDigest digest = ContentHash.newDigest();
+        StepScan scan = new StepScan();
+        ByteBuffer buffer = acquire();
+        long size = 0;
+        boolean complete = false;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                size += buffer.remaining();
+                if (size > maxBytes) {
+                    throw new TooLargeException(maxBytes);
+                }
+                digest.update(buffer.duplicate());
+                scan.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            complete = true;
+        } finally {
+            release(buffer);
+            if (!complete) {
+                Files.deleteIfExists(target);
+            }
+        }
+        return new Stored(size, ContentHash.toHex(digest.digest()), scan);
+    }
+
+    /**
+     * Writes exactly {@code length} bytes of {@code in} into {@code out}
+     * starting at {@code position}, as used for the chunks of a resumable
+     * upload.
+     *
+     * @throws IOException if the body is shorter or longer than {@code length}
+     */
+    public static void writeAt(ReadableByteChannel in, FileChannel out, long position, long length)
+            throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            long written = 0;
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                if (written + buffer.remaining() > length) {
+                    throw new IOException("Chunk is larger than " + length + " bytes");
+                }
+                while (buffer.hasRemaining()) {
+                    written += out.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+            if (written != length) {
+                throw new IOException("Chunk has " + written + " bytes, expected " + length);
+            }
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Hashes and pre-scans a file that is already stored, in one read.
+     */
+    public static Stored read(Path file) throws IOException {
+        MessageDigest digest = ContentHash.newDigest();
+        StepScan scan = new StepScan();
+        ByteBuffer buffer = acquire();
+        long size = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                size += buffer.remaining();
+                digest.update(buffer.duplicate());
+                scan.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            release(buffer);
+        }
+        return new Stored(size, ContentHash.toHex(digest.digest()), scan);
+    }
+
+    private static ByteBuffer acquire() {
+        ByteBuffer buffer = BUFFERS.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void release(ByteBuffer buffer) {
+        buffer.clear();
+        BUFFERS.offer(buffer);
+    }
+}
@@ -0,0 +1,175 @@
+package com.materiam.rest;
+
+import com.materiam.controllers.ProjectController;
+import com.materiam.entities.ImportTimeline;
+import com.materiam.imports.ImportJob;
+import com.materiam.imports.ImportService;
+import com.materiam.imports.ImportTimelineService;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Status of background CAD imports.
+ * GET resources/imports/{jobId}, resources/imports?project={projectId}
+ * or resources/imports/timelines
+ *
+ * Jobs are only shown for projects of the caller's session or account,
+ * or to admins. Stage timings are admin only.
+ *
+ * @author mufufu
+ */
+@Path("imports")
+@Produces(MediaType.APPLICATION_JSON)
+public class ImportResource {
+
+    @Inject
+    private ImportService importService;
+
+    @Inject
+    private ImportTimelineService timelineService;
+
+    @Inject
+    private ProjectController projectController;
+
+    @GET
+    @Path("{id}")
+    public Response getJob(@PathParam("id") String id, @Context SecurityContext security) {
+        ImportJob job = importService.getJob(id);
+        if (job == null || !canSee(job.getProjectId(), security)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(toJson(job)).build();
+    }
+
+    /**
+     * Stage timings of finished imports, for finding slow stages across
+     * projects. Admins only.
+     * GET resources/imports/timelines?limit=100 or ?project={projectId}
+     */
+    @GET
+    @Path("timelines")
+    public Response getTimelines(@QueryParam("project") Long projectId,
+                                 @QueryParam("limit") @DefaultValue("100") int limit,
+                                 @Context SecurityContext security) {
+        if (!security.isUserInRole("ADMIN")) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        List<ImportTimeline> timelines = projectId != null
+                ? timelineService.findForProject(projectId)
+                : timelineService.findRecent(Math.max(1, Math.min(limit, 1000)));
+        JsonArrayBuilder result = Json.createArrayBuilder();
+        for (ImportTimeline timeline : timelines) {
+            result.add(toJson(timeline));
+        }
+        return Response.ok(result.build()).build();
+    }
+
+    @GET
+    public Response getJobsForProject(@QueryParam("project") Long projectId,
+                                      @Context SecurityContext security) {
+        if (projectId == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (!canSee(projectId, security)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        JsonArrayBuilder jobs = Json.createArrayBuilder();
+        for (ImportJob job : importService.getJobsForProject(projectId)) {
+            jobs.add(toJson(job));
+        }
+        return Response.ok(jobs.build()).build();
+    }
+
+    private JsonObject toJson(ImportJob job) {
+        JsonObjectBuilder b = Json.createObjectBuilder()
+                .add("id", job.getId())
+                .add("state", job.getState().name())
+                .add("projectId", job.getProjectId())
+                .add("cadfile", job.getCadfileUuid())
+                .add("fileName", job.getFileName())
+                .add("priority", job.getPriority().name())
+                .add("queuePosition", job.getQueuePosition())
+                .add("treeVersion", job.getTreeVersion())
+                .add("created", job.getCreated().getTime())
+                .add("updated", job.getUpdated().getTime());
+        if (job.getMessage() != null) {
+            b.add("message", job.getMessage());
+        }
+        if (job.getError() != null) {
+            b.add("error", job.getError());
+        }
+        return b.build();
+    }
+
+    private boolean canSee(Long projectId, SecurityContext security) {
+        return security.isUserInRole("ADMIN") || projectController.ownsProject(projectId);
+    }
+
+    private JsonObject toJson(ImportTimeline t) {
+        JsonObjectBuilder b = Json.createObjectBuilder();
+        add(b, "id", t.getId());
+        add(b, "jobId", t.getJobId());
+        add(b, "projectId", t.getProjectId());
+        add(b, "cadfileId", t.getCadfileId());
+        add(b, "fileName", t.getFileName());
+        add(b, "state", t.getState());
+        add(b, "startedAt", t.getStartedAt() != null ? t.getStartedAt().getTime() : null);
+        add(b, "finishedAt", t.getFinishedAt() != null ? t.getFinishedAt().getTime() : null);
+        add(b, "uploadBytes", t.getUploadBytes());
+        add(b, "uploadMillis", t.getUploadMillis());
+        add(b, "queueMillis", t.getQueueMillis());
+        add(b, "scanMillis", t.getScanMillis());
+        add(b, "stepProducts", t.getStepProducts());
+        add(b, "stepOccurrences", t.getStepOccurrences());
+        add(b, "stepguruMillis", t.getStepguruMillis());
+        add(b, "stepguruExitCode", t.getStepguruExitCode());
+        if (t.getConversionReused() != null) {
+            b.add("conversionReused", t.getConversionReused());
+        }
+        add(b, "parseMillis", t.getParseMillis());
+        add(b, "definitionCount", t.getDefinitionCount());
+        add(b, "instanceCount", t.getInstanceCount());
+        add(b, "persistMillis", t.getPersistMillis());
+        add(b, "persistedRows", t.getPersistedRows());
+        add(b, "rowsPerSecond", t.getRowsPerSecond());
+        add(b, "simulationMillis", t.getSimulationMillis());
+        add(b, "simulatedParts", t.getSimulatedParts());
+        if (t.getSimulationTimes() != null) {
+            try (JsonReader reader = Json.createReader(new StringReader(t.getSimulationTimes()))) {
+                b.add("simulationTimes", reader.readArray());
+            }
+        }
+        if (t.getRevisionDiff() != null) {
+            try (JsonReader reader = Json.createReader(new StringReader(t.getRevisionDiff()))) {
+                b.add("revisionDiff", reader.readObject());
+            }
+        }
+        add(b, "totalMillis", t.getTotalMillis());
+        add(b, "error", t.getError());
+        return b.build();
+    }
+
+    private void add(JsonObjectBuilder b, String name, Object value) {
+        if (value instanceof Number) {
+            b.add(name, ((Number) value).longValue());
+        } else if (value != null) {
+            b.add(name, value.toString());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.materiam.rest;
+
+import com.materiam.controllers.ProjectController;
+import com.materiam.imports.ChunkedUploadService;
+import com.materiam.imports.ImportJob;
+import com.materiam.imports.UploadSession;
+import com.materiam.imports.UploadWriter;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.BitSet;
+
+/**
+ * Resumable chunked uploads.
+ * POST resources/uploads {name, size, sha256} starts a session,
+ * PUT resources/uploads/{id}/chunks/{index} sends one chunk as the raw body,
+ * GET resources/uploads/{id} lists the chunks already received and
+ * POST resources/uploads/{id}/complete verifies the file and starts the import.
+ *
+ * @author mufufu
+ */
+@Path("uploads")
+@Produces(MediaType.APPLICATION_JSON)
+public class UploadResource {
+
+    @Inject
+    private ChunkedUploadService uploadService;
+
+    @Inject
+    private ProjectController projectController;
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response create(JsonObject request) {
+        String name = request.getString("name", null);
+        long size = request.containsKey("size") ? request.getJsonNumber("size").longValue() : -1;
+        if (name == null || size <= 0) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        try {
+            UploadSession session = uploadService.create(name, size, request.getString("sha256", null));
+            return Response.status(Response.Status.CREATED).entity(toJson(session)).build();
+        } catch (UploadWriter.TooLargeException e) {
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).build();
+        } catch (IOException e) {
+            System.err.println("Could not start upload of " + name + ": " + e.getMessage());
+            return Response.serverError().build();
+        }
+    }
+
+    @GET
+    @Path("{id}")
+    public Response getSession(@PathParam("id") String id) {
+        UploadSession session = uploadService.getSession(id);
+        if (session == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(toJson(session)).build();
+    }
+
+    @PUT
+    @Path("{id}/chunks/{index}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Response putChunk(@PathParam("id") String id, @PathParam("index") int index, InputStream body) {
+        UploadSession session = uploadService.getSession(id);
+        if (session == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (index < 0 || index >= session.getChunkCount()) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        try {
+            uploadService.writeChunk(session, index, Channels.newChannel(body));
+        } catch (IOException e) {
+            // The chunk stays missing and can be sent again
+            System.err.println("Chunk " + index + " of upload " + id + " failed: " + e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.noContent().build();
+    }
+
+    @POST
+    @Path("{id}/complete")
+    public Response complete(@PathParam("id") String id) {
+        UploadSession session = uploadService.getSession(id);
+        if (session == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (!session.isComplete()) {
+            return Response.status(Response.Status.CONFLICT).entity(toJson(session)).build();
+        }
+        ImportJob job;
+        try {
+            job = projectController.completeUpload(session);
+        } catch (IOException e) {
+            System.err.println("Upload " + id + " could not be completed: " + e.getMessage());
+            uploadService.cancel(session);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.status(Response.Status.ACCEPTED).entity(Json.createObjectBuilder()
+                .add("job", job.getId())
+                .add("project", job.getProjectUuid())
+                .add("cadfile", job.getCadfileUuid())
+                .add("sha256", job.getContentHash())
+                .build()).build();
+    }
+
+    @DELETE
+    @Path("{id}")
+    public Response cancel(@PathParam("id") String id) {
+        UploadSession session = uploadService.getSession(id);
+        if (session == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        uploadService.cancel(session);
+        return Response.noContent().build();
+    }
+
+    private JsonObject toJson(UploadSession session) {
+        BitSet received = session.getReceived();
+        JsonArrayBuilder chunks = Json.createArrayBuilder();
+        for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+            chunks.add(i);
+        }
+        return Json.createObjectBuilder()
+                .add("id", session.getId())
+                .add("name", session.getFileName())
+                .add("size", session.getSize())
+                .add("chunkSize", session.getChunkSize())
+                .add("chunkCount", session.getChunkCount())
+                .add("received", chunks)
+                .build();
+    }
+}
@@ -0,0 +1,126 @@
+package com.materiam.servlets;
+
+import com.materiam.config.ImportConfig;
+import com.materiam.controllers.ProjectController;
+import com.materiam.imports.ImportBatch;
+import com.materiam.imports.ImportJob;
+import com.materiam.imports.UploadArchive;
+import com.materiam.imports.UploadWriter;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+
+/**
+ * Streaming CAD file upload. The request body is the raw file and is written
+ * straight into a new CADFile directory of the session's active project,
+ * without multipart parsing or buffering in the container.
+ *
+ * POST /upload?name=part.step
+ * POST /upload?name=part-rev-b.step&amp;revises={cadfile uuid}
+ *
+ * A zip archive (name ending in .zip) is unpacked while it is received and
+ * every STEP file in it is imported as its own CADFile, in parallel.
+ *
+ * @author mufufu
+ */
+@WebServlet(name = "uploadserver", urlPatterns = {"/upload"})
+public class uploadserver extends HttpServlet {
+
+    @Inject
+    ProjectController projectController;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse resp) throws ServletException, IOException {
+        String name = request.getParameter("name");
+        if (name == null || name.trim().isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing name");
+            return;
+        }
+
+        // Refuse early when the client announces a size over the limit
+        long maxBytes = ImportConfig.getMaxUploadBytes();
+        if (request.getContentLengthLong() > maxBytes) {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "File is too large");
+            return;
+        }
+
+        String revises = request.getParameter("revises");
+        if (revises != null && !projectController.reviseCadFile(revises)) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No such CAD file in the active project");
+            return;
+        }
+
+        if (UploadArchive.isArchive(name)) {
+            storeArchive(name, request, resp);
+            return;
+        }
+
+        ImportJob job;
+        try (InputStream in = request.getInputStream()) {
+            job = projectController.storeUpload(name, Channels.newChannel(in));
+        } catch (UploadWriter.TooLargeException e) {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "File is too large");
+            return;
+        }
+
+        resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        resp.setContentType("application/json;charset=UTF-8");
+        try (PrintWriter out = resp.getWriter()) {
+            out.print(toJson(job).build());
+        }
+    }
+
+    private void storeArchive(String name, HttpServletRequest request, HttpServletResponse resp) throws IOException {
+        ImportBatch batch;
+        try (InputStream in = request.getInputStream()) {
+            batch = projectController.storeArchive(name, in);
+        } catch (IOException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (batch.getSize() == 0) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No STEP files in " + name);
+            return;
+        }
+
+        JsonArrayBuilder jobs = Json.createArrayBuilder();
+        for (ImportJob job : batch.getJobs()) {
+            jobs.add(toJson(job).add("fileName", job.getFileName()));
+        }
+        JsonObjectBuilder body = Json.createObjectBuilder()
+                .add("batch", batch.getId())
+                .add("jobs", jobs);
+        if (batch.getError() != null) {
+            // The files before the error are imported anyway
+            body.add("error", batch.getError());
+        }
+        resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        resp.setContentType("application/json;charset=UTF-8");
+        try (PrintWriter out = resp.getWriter()) {
+            out.print(body.build());
+        }
+    }
+
+    private static JsonObjectBuilder toJson(ImportJob job) {
+        return Json.createObjectBuilder()
+                .add("job", job.getId())
+                .add("project", job.getProjectUuid())
+                .add("cadfile", job.getCadfileUuid())
+                .add("sha256", job.getContentHash());
+    }
+
+    @Override
+    public String getServletInfo() {
+        return "Streaming CAD file upload";
+    }
+}
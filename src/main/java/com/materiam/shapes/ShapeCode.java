@@ -0,0 +1,108 @@
+package com.materiam.shapes;
+
+import com.materiam.entities.Category;
+import com.materiam.entities.Part;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Part shapes recognized by stepguru. The constant names are the keys of
+ * the matching categories under GARS, so a code can be derived from a
+ * part's shape without a lookup.
+ *
+ * @author mufufu
+ */
+public enum ShapeCode {
+
+    UNRECOGNIZED("UNKNOWN", false),
+    SHEET_METAL_FLAT("SHEET_METAL_FLAT", true),
+    SHEET_METAL_FOLDED("SHEET_METAL_FOLDED", true),
+    TUBE_RECTANGULAR("TUBE_RECTANGULAR", true),
+    TUBE_ROUND("TUBE_ROUND", true),
+    BENT_TUBE_RECTANGULAR("TUBE_RECTANGULAR_BENT", true),
+    BENT_TUBE_ROUND("TUBE_ROUND_BENT", true),
+    BENT_WIRE(null, false),
+    WIRE(null, false),
+    TUBE_OTHER(null, false),
+    PROFILE(null, false),
+    BAR_ROUND(null, true),
+    BAR_RECTANGULAR(null, true);
+
+    private static final Map<String, ShapeCode> BY_PART_TYPE = new HashMap<>();
+    private static final Map<String, ShapeCode> BY_KEY = new HashMap<>();
+
+    static {
+        for (ShapeCode code : values()) {
+            BY_KEY.put(code.name(), code);
+            if (code.partType != null) {
+                BY_PART_TYPE.put(code.partType, code);
+            }
+        }
+    }
+
+    private final String partType;
+    private final boolean quotable;
+
+    ShapeCode(String partType, boolean quotable) {
+        this.partType = partType;
+        this.quotable = quotable;
+    }
+
+    /**
+     * @return the partType stepguru writes to assembly.json for this shape,
+     *         or null if stepguru does not detect it yet
+     */
+    public String getPartType() {
+        return partType;
+    }
+
+    /**
+     * @return true if the quoting engine can price parts of this shape
+     */
+    public boolean isQuotable() {
+        return quotable;
+    }
+
+    public boolean isSheetMetal() {
+        return this == SHEET_METAL_FLAT || this == SHEET_METAL_FOLDED;
+    }
+
+    /**
+     * Gets the shape of the raw material a part of this shape is cut from.
+     * Sheet metal is cut from flat sheets and bent tubes from straight ones.
+     */
+    public ShapeCode getMaterialShape() {
+        switch (this) {
+            case SHEET_METAL_FOLDED:
+                return SHEET_METAL_FLAT;
+            case BENT_TUBE_RECTANGULAR:
+                return TUBE_RECTANGULAR;
+            case BENT_TUBE_ROUND:
+                return TUBE_ROUND;
+            default:
+                return this;
+        }
+    }
+
+    /**
+     * @return the code for a stepguru partType, or null if it is not known
+     */
+    public static ShapeCode fromPartType(String partType) {
+        return partType == null ? null : BY_PART_TYPE.get(partType);
+    }
+
+    /**
+     * @return the code for a GARS category key, or null if it is not a shape
+     */
+    public static ShapeCode fromKey(String key) {
+        return key == null ? null : BY_KEY.get(key);
+    }
+
+    public static ShapeCode of(Category shape) {
+        return shape == null ? null : fromKey(shape.getKey());
+    }
+
+    public static ShapeCode of(Part part) {
+        return part == null ? null : of(part.getShape());
+    }
+}
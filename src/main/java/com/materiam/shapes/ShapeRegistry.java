@@ -0,0 +1,63 @@
+package com.materiam.shapes;
+
+import com.materiam.entities.Category;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shape categories (the children of GARS) loaded once when the application
+ * starts. Imports resolve the stepguru partType of every definition here
+ * instead of looking the category up by id, and the mapping never changes
+ * afterwards.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class ShapeRegistry {
+
+    @PersistenceContext(unitName = "materiam")
+    private EntityManager em;
+
+    private Map<ShapeCode, Category> categories;
+
+    @PostConstruct
+    public void init() {
+        List<Category> shapes = em.createQuery(
+                "select c from Category c where c.parent.key = 'GARS'", Category.class)
+                .getResultList();
+        Map<ShapeCode, Category> map = new EnumMap<>(ShapeCode.class);
+        for (Category shape : shapes) {
+            ShapeCode code = ShapeCode.fromKey(shape.getKey());
+            if (code != null) {
+                map.put(code, shape);
+            } else {
+                System.out.println("Shape category without a shape code: " + shape.getKey());
+            }
+        }
+        categories = Collections.unmodifiableMap(map);
+        System.out.println("Loaded " + categories.size() + " shape categories");
+    }
+
+    /**
+     * Loads the registry at deployment rather than on the first import.
+     */
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        categories.size();
+    }
+
+    /**
+     * @return the shape category for {@code code}, or null if the database
+     *         has no category for it
+     */
+    public Category getCategory(ShapeCode code) {
+        return code == null ? null : categories.get(code);
+    }
+}
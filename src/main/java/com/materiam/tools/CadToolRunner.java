@@ -0,0 +1,47 @@
+package com.materiam.tools;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * The CAD tools the import pipeline depends on: stepguru, which converts an
+ * uploaded STEP file into assembly.json plus a GLB, STEP and PNG per part,
+ * and amatix, which simulates the bend sequence of a folded sheet metal
+ * part. The implementation is chosen with materiam.tools.runner, see
+ * {@link CadToolRunnerProducer}.
+ *
+ * @author mufufu
+ */
+public interface CadToolRunner {
+
+    /**
+     * Converts {@code stepFile} and writes assembly.json and the per part
+     * files into {@code outDir}.
+     *
+     * @param onLine called with every line of tool output
+     */
+    ToolResult convert(Path stepFile, Path outDir, Consumer<String> onLine)
+            throws IOException, InterruptedException;
+
+    /**
+     * Simulates the bending of a single part STEP file and writes
+     * simulation.json into {@code outDir}.
+     *
+     * @param onLine called with every line of tool output
+     */
+    ToolResult simulate(Path partStep, Path outDir, Consumer<String> onLine)
+            throws IOException, InterruptedException;
+
+    /**
+     * @return the directory holding the press brake tools used by
+     *         {@link #simulate}, or null if there is none
+     */
+    Path getSimulationToolDir();
+
+    /**
+     * @return the options that change the outcome of {@link #simulate};
+     *         part of the simulation cache key
+     */
+    String getSimulationOptions();
+}
@@ -0,0 +1,38 @@
+package com.materiam.tools;
+
+import com.materiam.config.ImportConfig;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Inject;
+
+/**
+ * Picks the {@link CadToolRunner} named by materiam.tools.runner: "exec"
+ * (the default) runs the real tools, "fake" writes synthetic output so the
+ * pipeline can be load tested on machines without stepguru and amatix.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class CadToolRunnerProducer {
+
+    @Inject
+    private Instance<ExecCadToolRunner> exec;
+
+    @Inject
+    private Instance<FakeCadToolRunner> fake;
+
+    @Produces
+    @ApplicationScoped
+    public CadToolRunner getCadToolRunner() {
+        String runner = ImportConfig.getToolRunner();
+        System.out.println("CAD tool runner: " + runner);
+        if ("fake".equalsIgnoreCase(runner)) {
+            return fake.get();
+        }
+        if (!"exec".equalsIgnoreCase(runner)) {
+            System.err.println("Unknown materiam.tools.runner " + runner + ", using exec");
+        }
+        return exec.get();
+    }
+}
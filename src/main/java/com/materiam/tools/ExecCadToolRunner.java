@@ -0,0 +1,70 @@
+package com.materiam.tools;
+
+import com.materiam.config.ImportConfig;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs the installed stepguru and amatix binaries through the
+ * {@link ProcessSupervisor}.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+@Typed(ExecCadToolRunner.class)
+public class ExecCadToolRunner implements CadToolRunner {
+
+    static final String STEPGURU = "/usr/local/bin/stepguru";
+    static final String AMATIX = "/usr/local/bin/amatix";
+    static final String TOOL_DIR = "/usr/local/share/amatix/tools";
+    static final String AMATIX_OPTIONS = "--margin 0.005";
+
+    @Inject
+    private ProcessSupervisor processSupervisor;
+
+    @Override
+    public ToolResult convert(Path stepFile, Path outDir, Consumer<String> onLine)
+            throws IOException, InterruptedException {
+        ToolCommand command = new ToolCommand("stepguru",
+                Arrays.asList(STEPGURU, stepFile.toString(), "--out", outDir + File.separator, "-i"))
+                .timeoutMillis(ImportConfig.getStepguruTimeoutMillis())
+                .cpuSeconds(ImportConfig.getToolCpuSeconds())
+                .memoryMb(ImportConfig.getToolMemoryMb())
+                .onLine(onLine);
+        System.out.println("* = - = * = - = Executing STEPGuru * = - = * = - = *");
+        return processSupervisor.run(command);
+    }
+
+    @Override
+    public ToolResult simulate(Path partStep, Path outDir, Consumer<String> onLine)
+            throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(Arrays.asList(AMATIX, partStep.toString(), "--tool-dir", TOOL_DIR));
+        args.addAll(Arrays.asList(AMATIX_OPTIONS.split(" ")));
+        args.addAll(Arrays.asList("--out-dir", outDir.toString()));
+        ToolCommand command = new ToolCommand("amatix", args)
+                .timeoutMillis(ImportConfig.getAmatixTimeoutMillis())
+                .cpuSeconds(ImportConfig.getToolCpuSeconds())
+                .memoryMb(ImportConfig.getToolMemoryMb())
+                .onLine(onLine);
+        return processSupervisor.run(command);
+    }
+
+    @Override
+    public Path getSimulationToolDir() {
+        return Paths.get(TOOL_DIR);
+    }
+
+    @Override
+    public String getSimulationOptions() {
+        return AMATIX_OPTIONS;
+    }
+}
@@ -0,0 +1,284 @@
+package com.materiam.tools;
+
+import com.materiam.config.ImportConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+
+/**
+ * Stand-in for stepguru and amatix that writes synthetic but well formed
+ * output, so imports can be load tested and profiled without the real
+ * tools. Every conversion produces the same assembly for the same settings:
+ *
+ * <ul>
+ * <li>materiam.tools.fake.parts: part definitions, grouped into
+ *     sub-assemblies of {@value #PARTS_PER_ASSEMBLY}</li>
+ * <li>materiam.tools.fake.instances: instances of every part</li>
+ * <li>materiam.tools.fake.modelkb: size of every GLB file</li>
+ * <li>materiam.tools.fake.convertms and simulatems: time each run takes</li>
+ * </ul>
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+@Typed(FakeCadToolRunner.class)
+public class FakeCadToolRunner implements CadToolRunner {
+
+    static final int PARTS_PER_ASSEMBLY = 50;
+
+    private static final long SEED = 20240611L;
+
+    private static final String[] PART_TYPES = {
+        "SHEET_METAL_FLAT", "SHEET_METAL_FOLDED", "SHEET_METAL_FOLDED",
+        "TUBE_RECTANGULAR", "TUBE_ROUND", "UNKNOWN"
+    };
+
+    private int partCount;
+    private int instancesPerPart;
+    private int modelBytes;
+    private long convertMillis;
+    private long simulateMillis;
+    private byte[] image;
+
+    @PostConstruct
+    public void init() {
+        partCount = ImportConfig.getFakePartCount();
+        instancesPerPart = ImportConfig.getFakeInstancesPerPart();
+        modelBytes = ImportConfig.getFakeModelKb() * 1024;
+        convertMillis = ImportConfig.getFakeConvertMillis();
+        simulateMillis = ImportConfig.getFakeSimulateMillis();
+        image = renderImage();
+        System.out.println("Fake CAD tools: " + partCount + " parts x " + instancesPerPart + " instances, "
+                + modelBytes / 1024 + " KB models");
+    }
+
+    @Override
+    public ToolResult convert(Path stepFile, Path outDir, Consumer<String> onLine)
+            throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        onLine.accept("****** Fake conversion of " + stepFile.getFileName());
+        Thread.sleep(convertMillis);
+
+        Random random = new Random(SEED);
+        writeAssembly(outDir.resolve("assembly.json"), random);
+        byte[] model = glb(modelBytes);
+        for (int i = 0; i < partCount; i++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            String persid = partId(i);
+            Files.write(outDir.resolve("out_" + persid + "_1.glb"), model);
+            Files.write(outDir.resolve("out_" + persid + "_1.step"), step(persid));
+            Files.write(outDir.resolve("image_" + persid + "_1.png"), image);
+        }
+        onLine.accept("info: wrote " + partCount + " parts");
+        return new ToolResult(0, false, System.currentTimeMillis() - start, Collections.emptyList());
+    }
+
+    @Override
+    public ToolResult simulate(Path partStep, Path outDir, Consumer<String> onLine)
+            throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        onLine.accept("info: fake simulation of " + partStep.getFileName());
+        Thread.sleep(simulateMillis);
+
+        // Seeded by the file name so a part always gets the same outcome
+        Random random = new Random(partStep.getFileName().toString().hashCode());
+        int bends = 1 + random.nextInt(6);
+        int collisionAt = random.nextInt(10) == 0 ? random.nextInt(bends) : -1;
+        try (Writer writer = Files.newBufferedWriter(outDir.resolve("simulation.json"));
+             JsonGenerator json = Json.createGenerator(writer)) {
+            json.writeStartObject();
+            json.writeStartArray("warnings").writeEnd();
+            json.writeStartArray("sequence");
+            for (int step = 0; step < bends; step++) {
+                json.writeStartObject().write("stepIndex", step).writeStartArray("collisions");
+                if (step == collisionAt) {
+                    json.writeStartObject().write("tool", "punch").write("bend", step).writeEnd();
+                }
+                json.writeEnd().writeEnd();
+            }
+            json.writeEnd();
+            json.writeEnd();
+        }
+        return new ToolResult(0, false, System.currentTimeMillis() - start, Collections.emptyList());
+    }
+
+    @Override
+    public Path getSimulationToolDir() {
+        return null;
+    }
+
+    @Override
+    public String getSimulationOptions() {
+        return "fake";
+    }
+
+    private void writeAssembly(Path file, Random random) throws IOException {
+        int assemblyCount = (partCount + PARTS_PER_ASSEMBLY - 1) / PARTS_PER_ASSEMBLY;
+        try (Writer writer = Files.newBufferedWriter(file);
+             JsonGenerator json = Json.createGenerator(writer)) {
+            json.writeStartObject();
+
+            json.writeStartArray("definitions");
+            json.writeStartObject().write("id", "fake-root").write("name", "Fake assembly")
+                .write("shapeType", "COMPOUND").writeEnd();
+            for (int a = 0; a < assemblyCount; a++) {
+                json.writeStartObject().write("id", assemblyId(a)).write("name", "Sub-assembly " + (a + 1))
+                    .write("shapeType", "COMPOUND").writeEnd();
+            }
+            for (int i = 0; i < partCount; i++) {
+                writePart(json, i, random);
+            }
+            json.writeEnd();
+
+            int instance = 0;
+            json.writeStartObject("root").write("id", "i" + instance++).write("definitionId", "fake-root");
+            json.writeStartArray("children");
+            for (int a = 0; a < assemblyCount; a++) {
+                json.writeStartObject().write("id", "i" + instance++).write("definitionId", assemblyId(a));
+                writeTransform(json, a * 1000.0, 0);
+                json.writeStartArray("children");
+                int last = Math.min(partCount, (a + 1) * PARTS_PER_ASSEMBLY);
+                for (int i = a * PARTS_PER_ASSEMBLY; i < last; i++) {
+                    for (int n = 0; n < instancesPerPart; n++) {
+                        json.writeStartObject().write("id", "i" + instance++).write("definitionId", partId(i));
+                        writeTransform(json, (i % PARTS_PER_ASSEMBLY) * 20.0, n * 20.0);
+                        json.writeEnd();
+                    }
+                }
+                json.writeEnd().writeEnd();
+            }
+            json.writeEnd().writeEnd();
+
+            json.writeStartArray("objectCounts");
+            for (int i = 0; i < partCount; i++) {
+                json.writeStartObject().write("id", partId(i)).write("count", instancesPerPart).writeEnd();
+            }
+            json.writeEnd();
+
+            json.writeEnd();
+        }
+    }
+
+    private void writePart(JsonGenerator json, int index, Random random) {
+        String partType = PART_TYPES[random.nextInt(PART_TYPES.length)];
+        json.writeStartObject().write("id", partId(index)).write("name", "Part " + (index + 1))
+            .write("shapeType", "SOLID").write("partType", partType);
+        double thickness = 1 + random.nextInt(5);
+        double length = 100 + random.nextInt(900);
+        double width = 20 + random.nextInt(180);
+        switch (partType) {
+            case "SHEET_METAL_FOLDED":
+                json.write("numBends", 1 + random.nextInt(6));
+                // fall through
+            case "SHEET_METAL_FLAT":
+                json.write("thickness", thickness)
+                    .write("cutLength", 2 * (length + width))
+                    .write("surfaceArea", 2 * length * width)
+                    .write("volume", length * width * thickness)
+                    .write("flatPatternWidth", width)
+                    .write("flatPatternLength", length);
+                break;
+            case "TUBE_RECTANGULAR":
+                json.write("width", width).write("height", width / 2)
+                    .write("length", length).write("thickness", thickness)
+                    .write("surfaceArea", 3 * width * length)
+                    .write("volume", 3 * width * length * thickness);
+                break;
+            case "TUBE_ROUND":
+                json.write("diameter", width).write("length", length).write("thickness", thickness)
+                    .write("surfaceArea", Math.PI * width * length)
+                    .write("volume", Math.PI * width * length * thickness);
+                break;
+            default:
+                break;
+        }
+        json.writeEnd();
+    }
+
+    private static void writeTransform(JsonGenerator json, double x, double y) {
+        double[] transform = {1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, 0, 0, 0, 0, 1};
+        json.writeStartArray("transform");
+        for (double value : transform) {
+            json.write(value);
+        }
+        json.writeEnd();
+    }
+
+    private static String assemblyId(int index) {
+        return "fake-asm-" + index;
+    }
+
+    private static String partId(int index) {
+        return "fake-part-" + index;
+    }
+
+    /**
+     * A binary glTF with an empty scene, padded to {@code size} bytes with
+     * spaces in the JSON chunk.
+     */
+    private static byte[] glb(int size) {
+        byte[] json = "{\"asset\":{\"version\":\"2.0\"}}".getBytes(StandardCharsets.US_ASCII);
+        int chunkLength = Math.max(json.length, size - 20);
+        chunkLength = (chunkLength + 3) & ~3;
+        ByteBuffer buffer = ByteBuffer.allocate(20 + chunkLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x46546C67);          // "glTF"
+        buffer.putInt(2);
+        buffer.putInt(20 + chunkLength);
+        buffer.putInt(chunkLength);
+        buffer.putInt(0x4E4F534A);          // "JSON"
+        buffer.put(json);
+        byte[] padding = new byte[chunkLength - json.length];
+        Arrays.fill(padding, (byte) ' ');
+        buffer.put(padding);
+        return buffer.array();
+    }
+
+    /**
+     * A STEP file with a single PRODUCT entity; unique per part so the
+     * simulation cache and the part store, which only look at the DATA
+     * section, do not treat every part as the same one.
+     */
+    private static byte[] step(String persid) {
+        return ("ISO-10303-21;\nHEADER;\nFILE_DESCRIPTION(('fake part " + persid + "'),'2;1');\n"
+                + "FILE_NAME('" + persid + ".step','',(''),(''),'','','');\nFILE_SCHEMA(('AUTOMOTIVE_DESIGN'));\n"
+                + "ENDSEC;\nDATA;\n#1=PRODUCT('" + persid + "','" + persid + "','',());\nENDSEC;\n"
+                + "END-ISO-10303-21;\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] renderImage() {
+        BufferedImage img = new BufferedImage(128, 128, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 128, 128);
+        g.setColor(Color.GRAY);
+        g.fillRect(24, 40, 80, 48);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(img, "png", out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+}
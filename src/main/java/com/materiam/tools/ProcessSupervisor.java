@@ -0,0 +1,168 @@
+package com.materiam.tools;
+
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+import jakarta.enterprise.context.ApplicationScoped;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.function.Consumer;
+
+/**
+ * Runs external CAD tools (stepguru, amatix) through ProcessBuilder.
+ *
+ * stdout and stderr are drained on their own threads at the same time, so a
+ * tool that writes a lot to either stream cannot block on a full pipe. The
+ * calling thread only waits for the process and kills it, together with any
+ * child processes, when the timeout passes or the caller is interrupted.
+ * CPU and memory limits are applied with ulimit in a wrapping shell.
+ *
+ * @author mufufu
+ */
+@ApplicationScoped
+public class ProcessSupervisor {
+
+    private static final int STDERR_TAIL_LINES = 20;
+
+    // Time given to the drain threads to read what is left after exit
+    private static final long DRAIN_GRACE_MS = 5000;
+
+    // Time given to a killed tool and its children to exit
+    private static final long KILL_WAIT_MS = 10000;
+
+    @Resource(lookup = "java:comp/DefaultManagedThreadFactory")
+    private ManagedThreadFactory threadFactory;
+
+    public ToolResult run(ToolCommand command) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(wrapWithLimits(command));
+        if (command.getDirectory() != null) {
+            builder.directory(command.getDirectory().toFile());
+        }
+
+        long start = System.currentTimeMillis();
+        Process process = builder.start();
+        String name = command.getName();
+        Deque<String> stderrTail = new ArrayDeque<>();
+
+        Thread stdout = drain(process.getInputStream(), name + "-stdout", line -> {
+            System.out.println(name + ": " + line);
+            command.getOnLine().accept(line);
+        });
+        Thread stderr = drain(process.getErrorStream(), name + "-stderr", line -> {
+            System.out.println(name + " error: " + line);
+            synchronized (stderrTail) {
+                if (stderrTail.size() == STDERR_TAIL_LINES) {
+                    stderrTail.removeFirst();
+                }
+                stderrTail.addLast(line);
+            }
+        });
+
+        boolean timedOut = false;
+        try {
+            if (command.getTimeoutMillis() > 0) {
+                if (!process.waitFor(command.getTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                    timedOut = true;
+                    System.out.println(name + ": timed out after " + command.getTimeoutMillis() + " ms, killing it");
+                    kill(process);
+                }
+            } else {
+                process.waitFor();
+            }
+        } catch (InterruptedException e) {
+            System.out.println(name + ": interrupted, killing it");
+            kill(process);
+            throw e;
+        }
+
+        stdout.join(DRAIN_GRACE_MS);
+        stderr.join(DRAIN_GRACE_MS);
+
+        int exitCode = timedOut ? -1 : process.exitValue();
+        List<String> tail;
+        synchronized (stderrTail) {
+            tail = new ArrayList<>(stderrTail);
+        }
+        return new ToolResult(exitCode, timedOut, System.currentTimeMillis() - start, tail);
+    }
+
+    /**
+     * Kills the process and everything it started, and waits a bounded time
+     * until they are gone, so the caller can delete what they wrote without
+     * them writing it again.
+     */
+    public static void kill(Process process) {
+        List<ProcessHandle> descendants = process.descendants().collect(Collectors.toList());
+        descendants.forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+
+        long deadline = System.currentTimeMillis() + KILL_WAIT_MS;
+        List<ProcessHandle> handles = new ArrayList<>(descendants);
+        handles.add(process.toHandle());
+        for (ProcessHandle handle : handles) {
+            try {
+                handle.onExit().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                System.out.println("Process " + handle.pid() + " still running " + KILL_WAIT_MS
+                        + " ms after it was killed");
+            } catch (ExecutionException e) {
+                // onExit does not fail
+            } catch (InterruptedException e) {
+                // Keep the interrupt for the caller, which is stopping anyway
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Thread drain(InputStream in, String threadName, Consumer<String> onLine) {
+        Thread thread = threadFactory.newThread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    onLine.accept(line);
+                }
+            } catch (IOException e) {
+                // Stream closed because the process was killed
+            }
+        });
+        thread.setName(threadName);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Prefixes the command with a shell that sets the ulimits and then execs
+     * the tool, so the limits apply to the tool itself. The tool arguments
+     * are passed as positional parameters and never parsed by the shell.
+     */
+    private List<String> wrapWithLimits(ToolCommand command) {
+        if (command.getCpuSeconds() <= 0 && command.getMemoryMb() <= 0) {
+            return command.getCommand();
+        }
+        StringBuilder script = new StringBuilder();
+        if (command.getCpuSeconds() > 0) {
+            script.append("ulimit -t ").append(command.getCpuSeconds()).append(" && ");
+        }
+        if (command.getMemoryMb() > 0) {
+            script.append("ulimit -v ").append(command.getMemoryMb() * 1024L).append(" && ");
+        }
+        script.append("exec \"$0\" \"$@\"");
+
+        List<String> wrapped = new ArrayList<>();
+        wrapped.add("/bin/sh");
+        wrapped.add("-c");
+        wrapped.add(script.toString());
+        wrapped.addAll(command.getCommand());
+        return wrapped;
+    }
+}
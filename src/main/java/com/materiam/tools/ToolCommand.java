@@ -0,0 +1,82 @@
+package com.materiam.tools;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An external tool invocation for the {@link ProcessSupervisor}: the
+ * command line plus the limits it runs under.
+ *
+ * @author mufufu
+ */
+public class ToolCommand {
+
+    private final String name;
+    private final List<String> command;
+    private Path directory;
+    private long timeoutMillis;
+    private int cpuSeconds;
+    private int memoryMb;
+    private Consumer<String> onLine = line -> { };
+
+    /**
+     * @param name short name used as a log prefix, e.g. "stepguru"
+     */
+    public ToolCommand(String name, List<String> command) {
+        this.name = name;
+        this.command = Collections.unmodifiableList(new ArrayList<>(command));
+    }
+
+    /**
+     * Kills the tool if it runs longer than this; 0 waits forever.
+     */
+    public ToolCommand timeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Limits the CPU time of the tool (ulimit -t); 0 for no limit.
+     */
+    public ToolCommand cpuSeconds(int cpuSeconds) {
+        this.cpuSeconds = cpuSeconds;
+        return this;
+    }
+
+    /**
+     * Limits the address space of the tool (ulimit -v); 0 for no limit.
+     */
+    public ToolCommand memoryMb(int memoryMb) {
+        this.memoryMb = memoryMb;
+        return this;
+    }
+
+    public ToolCommand directory(Path directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * Called with every stdout line as it is read, e.g. to report progress.
+     */
+    public ToolCommand onLine(Consumer<String> onLine) {
+        this.onLine = onLine;
+        return this;
+    }
+
+    public String getName() { return name; }
+    public List<String> getCommand() { return command; }
+    public Path getDirectory() { return directory; }
+    public long getTimeoutMillis() { return timeoutMillis; }
+    public int getCpuSeconds() { return cpuSeconds; }
+    public int getMemoryMb() { return memoryMb; }
+    public Consumer<String> getOnLine() { return onLine; }
+
+    @Override
+    public String toString() {
+        return String.join(" ", command);
+    }
+}
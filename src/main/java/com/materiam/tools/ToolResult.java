@@ -0,0 +1,40 @@
+package com.materiam.tools;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a supervised tool run.
+ *
+ * @author mufufu
+ */
+public class ToolResult {
+
+    private final int exitCode;
+    private final boolean timedOut;
+    private final long elapsedMillis;
+    private final List<String> stderrTail;
+
+    public ToolResult(int exitCode, boolean timedOut, long elapsedMillis, List<String> stderrTail) {
+        this.exitCode = exitCode;
+        this.timedOut = timedOut;
+        this.elapsedMillis = elapsedMillis;
+        this.stderrTail = Collections.unmodifiableList(stderrTail);
+    }
+
+    /**
+     * @return the exit code, or -1 if the tool was killed after a timeout
+     */
+    public int getExitCode() { return exitCode; }
+    public boolean isTimedOut() { return timedOut; }
+    public long getElapsedMillis() { return elapsedMillis; }
+
+    /**
+     * @return the last lines the tool wrote to stderr
+     */
+    public List<String> getStderrTail() { return stderrTail; }
+
+    public boolean isSuccess() {
+        return !timedOut && exitCode == 0;
+    }
+}
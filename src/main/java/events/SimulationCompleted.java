@@ -0,0 +1,37 @@
+package events;
+
+/**
+ * Fired by the import pipeline every time the amatix simulation of a
+ * single part finishes, successfully or not.
+ *
+ * @author mufufu
+ */
+public class SimulationCompleted {
+
+    private final String jobId;
+    private final Long partId;
+    private final String persid;
+    private final int exitCode;
+    private final long elapsedMillis;
+    private final boolean hasCollisions;
+    private final boolean hasWarnings;
+
+    public SimulationCompleted(String jobId, Long partId, String persid, int exitCode,
+                               long elapsedMillis, boolean hasCollisions, boolean hasWarnings) {
+        this.jobId = jobId;
+        this.partId = partId;
+        this.persid = persid;
+        this.exitCode = exitCode;
+        this.elapsedMillis = elapsedMillis;
+        this.hasCollisions = hasCollisions;
+        this.hasWarnings = hasWarnings;
+    }
+
+    public String getJobId() { return jobId; }
+    public Long getPartId() { return partId; }
+    public String getPersid() { return persid; }
+    public int getExitCode() { return exitCode; }
+    public long getElapsedMillis() { return elapsedMillis; }
+    public boolean isHasCollisions() { return hasCollisions; }
+    public boolean isHasWarnings() { return hasWarnings; }
+}
@@ -0,0 +1,46 @@
+-- Brings a materiam database created by an earlier version up to the
+-- current entities. The schema action in persistence.xml is 'create', which
+-- adds the new tables (ASSEMBLYCLOSURE, IMPORTJOURNAL, IMPORTTIMELINE) on
+-- deploy but never changes a table that already exists.
+--
+-- Run it once against PostgreSQL before deploying, e.g.
+--   psql -U materiam -d materiam -f upgrade.sql
+-- Every statement can be run again safely.
+
+-- Part, Assembly and Instance take their ids from sequences allocated 500
+-- at a time instead of IDENTITY columns. Start each one above the ids
+-- already in use; EclipseLink hands out the 500 ids up to each nextval.
+CREATE SEQUENCE IF NOT EXISTS PART_SEQ INCREMENT BY 500;
+SELECT setval('PART_SEQ', GREATEST((SELECT last_value FROM PART_SEQ),
+        (SELECT COALESCE(MAX(ID), 0) FROM PART) + 500));
+
+CREATE SEQUENCE IF NOT EXISTS ASSEMBLY_SEQ INCREMENT BY 500;
+SELECT setval('ASSEMBLY_SEQ', GREATEST((SELECT last_value FROM ASSEMBLY_SEQ),
+        (SELECT COALESCE(MAX(ID), 0) FROM ASSEMBLY) + 500));
+
+CREATE SEQUENCE IF NOT EXISTS INSTANCE_SEQ INCREMENT BY 500;
+SELECT setval('INSTANCE_SEQ', GREATEST((SELECT last_value FROM INSTANCE_SEQ),
+        (SELECT COALESCE(MAX(ID), 0) FROM INSTANCE) + 500));
+
+CREATE SEQUENCE IF NOT EXISTS ASSEMBLY_CLOSURE_SEQ INCREMENT BY 500;
+
+-- Upload hash and revisions
+ALTER TABLE CADFILE ADD COLUMN IF NOT EXISTS CONTENTHASH VARCHAR(64);
+ALTER TABLE CADFILE ADD COLUMN IF NOT EXISTS PREVIOUSREVISIONID BIGINT;
+ALTER TABLE CADFILE ADD COLUMN IF NOT EXISTS SUPERSEDED BOOLEAN;
+CREATE INDEX IF NOT EXISTS INDEX_CADFILE_CONTENTHASH ON CADFILE (CONTENTHASH);
+
+-- Simulation state and the fingerprint identical parts share
+ALTER TABLE PART ADD COLUMN IF NOT EXISTS SIMULATED BOOLEAN;
+ALTER TABLE PART ADD COLUMN IF NOT EXISTS FINGERPRINT VARCHAR(64);
+CREATE INDEX IF NOT EXISTS INDEX_PART_FINGERPRINT ON PART (FINGERPRINT);
+
+-- Assembly hierarchy index. Existing rows keep nulls here, which makes
+-- AssemblyHierarchy and AssemblyIndex fall back to walking the tree.
+ALTER TABLE ASSEMBLY ADD COLUMN IF NOT EXISTS CADFILEID BIGINT;
+ALTER TABLE ASSEMBLY ADD COLUMN IF NOT EXISTS SUBTREEPARTCOUNT INTEGER;
+ALTER TABLE ASSEMBLY ADD COLUMN IF NOT EXISTS SUBTREEASSEMBLYCOUNT INTEGER;
+CREATE INDEX IF NOT EXISTS INDEX_ASSEMBLY_CADFILEID ON ASSEMBLY (CADFILEID);
+
+ALTER TABLE INSTANCE ADD COLUMN IF NOT EXISTS PARENTASSEMBLYID BIGINT;
+CREATE INDEX IF NOT EXISTS INDEX_INSTANCE_PARENTASSEMBLYID ON INSTANCE (PARENTASSEMBLYID);